@@ -0,0 +1,55 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Base class for engines that run a {@link PhaseProgram} as a sequence 
+ * of {@link #forEach(int, int, RangeTask)} invocations.
+ */
+abstract class AbstractExecutionEngine implements ExecutionEngine 
+{
+    private final PhaseTask phaseTask = new PhaseTask();
+
+    private static final class PhaseTask implements RangeTask 
+    {
+        public PhaseProgram program;
+        public int phase;
+
+        @Override
+        public void run(int start,int end) {
+            program.run( phase , start , end );
+        }
+    }
+
+    @Override
+    public void run(PhaseProgram program) 
+    {
+        final int phaseCount = program.getPhaseCount();
+        for ( int phase = 0 ; phase < phaseCount ; phase++ ) 
+        {
+            final int size = program.getSize( phase );
+            if ( size == PhaseProgram.SERIAL ) {
+                program.run( phase , 0 , 0 );
+            } 
+            else 
+            {
+                phaseTask.program = program;
+                phaseTask.phase = phase;
+                forEach( size , program.getGrainSize( phase ) , phaseTask );
+            }
+        }
+    }
+}
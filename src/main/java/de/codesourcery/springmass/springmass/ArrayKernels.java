@@ -0,0 +1,401 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Solver kernels over primitive arrays.
+ * 
+ * <p>Loops are counted, access their arrays contiguously and only use selects instead 
+ * of control flow, so a JIT compiler that supports vectorizing conditional moves 
+ * can compile them to packed SIMD instructions processing several particles at once. 
+ * The spring loops read particles through the spring endpoint indices, so they need 
+ * gather loads to vectorize but still avoid the per-element interface calls of the columns. 
+ * Results are bit-identical to the scalar code paths.</p>
+ * 
+ * <p>Array loops are only used when the columns are backed by arrays 
+ * (see {@link ParticleStore#isArrayBacked()} and {@link SpringTable#isArrayBacked()}), 
+ * other storage goes through a column loop that computes exactly the same. 
+ * Single-precision columns have their own <code>float[]</code> loops that widen values 
+ * to <code>double</code> for computing, just like reading them through the column does.</p>
+ */
+public final class ArrayKernels 
+{
+    private ArrayKernels() {
+    }
+
+    /**
+     * Verlet integration of particles <code>start...end-1</code>, fixed and selected particles do not move.
+     * 
+     * @param intoPrevious whether to write the new positions into the previous position columns
+     * and leave the current positions untouched (see {@link ParticleStore#swapPositionBuffers()}) 
+     * instead of updating both in place
+     */
+    public static void integrate(ParticleStore p,int start,int end,boolean intoPrevious,
+            double gravity,double dampening,double deltaTSquared,double maxSpeed,double maxY) 
+    {
+        final boolean arrayBacked = p.isArrayBacked();
+        final boolean floatArrayBacked = p.isFloatArrayBacked();
+        int mass = start;
+        while ( mass < end ) 
+        {
+            if ( p.hasFlags( mass , Mass.FLAG_FIXED | Mass.FLAG_SELECTED ) ) 
+            {
+                if ( intoPrevious ) 
+                {
+                    p.prevX.set( mass , p.posX.get( mass ) );
+                    p.prevY.set( mass , p.posY.get( mass ) );
+                    p.prevZ.set( mass , p.posZ.get( mass ) );
+                }
+                mass++;
+                continue;
+            }
+
+            // integrate runs of movable particles
+            final int runStart = mass;
+            while ( mass < end && ! p.hasFlags( mass , Mass.FLAG_FIXED | Mass.FLAG_SELECTED ) ) {
+                mass++;
+            }
+            if ( arrayBacked ) 
+            {
+                integrate( runStart , mass , 
+                        ((DoubleColumn.Heap) p.posX).array() , ((DoubleColumn.Heap) p.posY).array() , ((DoubleColumn.Heap) p.posZ).array() , 
+                        ((DoubleColumn.Heap) p.prevX).array() , ((DoubleColumn.Heap) p.prevY).array() , ((DoubleColumn.Heap) p.prevZ).array() , 
+                        ((DoubleColumn.Heap) p.forceX).array() , ((DoubleColumn.Heap) p.forceY).array() , ((DoubleColumn.Heap) p.forceZ).array() , 
+                        ((DoubleColumn.Heap) p.inverseMass).array() , 
+                        intoPrevious , gravity , dampening , deltaTSquared , maxSpeed , maxY );
+            } 
+            else if ( floatArrayBacked ) 
+            {
+                integrate( runStart , mass , 
+                        ((DoubleColumn.FloatHeap) p.posX).array() , ((DoubleColumn.FloatHeap) p.posY).array() , ((DoubleColumn.FloatHeap) p.posZ).array() , 
+                        ((DoubleColumn.FloatHeap) p.prevX).array() , ((DoubleColumn.FloatHeap) p.prevY).array() , ((DoubleColumn.FloatHeap) p.prevZ).array() , 
+                        ((DoubleColumn.FloatHeap) p.forceX).array() , ((DoubleColumn.FloatHeap) p.forceY).array() , ((DoubleColumn.FloatHeap) p.forceZ).array() , 
+                        ((DoubleColumn.Heap) p.inverseMass).array() , 
+                        intoPrevious , gravity , dampening , deltaTSquared , maxSpeed , maxY );
+            } else {
+                integrateColumns( p , runStart , mass , intoPrevious , gravity , dampening , deltaTSquared , maxSpeed , maxY );
+            }
+        }
+    }
+
+    // all particles in the range must be movable
+    private static void integrate(int start,int end,
+            double[] posX,double[] posY,double[] posZ,
+            double[] prevX,double[] prevY,double[] prevZ,
+            double[] forceX,double[] forceY,double[] forceZ,
+            double[] inverseMass,
+            boolean intoPrevious,double gravity,double dampening,double deltaTSquared,double maxSpeed,double maxY) 
+    {
+        // loop-invariant, the JIT compiler unswitches the loop
+        final double[] newX = intoPrevious ? prevX : posX;
+        final double[] newY = intoPrevious ? prevY : posY;
+        final double[] newZ = intoPrevious ? prevZ : posZ;
+        for ( int i = start ; i < end ; i++ ) 
+        {
+            final double currentX = posX[i];
+            final double currentY = posY[i];
+            final double currentZ = posZ[i];
+
+            double deltaX = currentX - prevX[i];
+            double deltaY = currentY - prevY[i];
+            double deltaZ = currentZ - prevZ[i];
+
+            final double factor = inverseMass[i] / deltaTSquared;
+            deltaX += ( forceX[i] - deltaX * dampening ) * factor;
+            deltaY += ( ( forceY[i] + gravity ) - deltaY * dampening ) * factor;
+            deltaZ += ( forceZ[i] - deltaZ * dampening ) * factor;
+
+            // clamp to max. speed
+            final double speed = Math.sqrt( deltaX*deltaX + deltaY*deltaY + deltaZ*deltaZ );
+            final double scale = speed > maxSpeed ? maxSpeed / speed : 1.0;
+
+            final double newPosY = currentY + deltaY * scale;
+            if ( ! intoPrevious ) 
+            {
+                prevX[i] = currentX;
+                prevY[i] = currentY;
+                prevZ[i] = currentZ;
+            }
+            newX[i] = currentX + deltaX * scale;
+            newY[i] = newPosY > maxY ? maxY : newPosY;
+            newZ[i] = currentZ + deltaZ * scale;
+        }
+    }
+
+    // single-precision counterpart of the array loop above
+    private static void integrate(int start,int end,
+            float[] posX,float[] posY,float[] posZ,
+            float[] prevX,float[] prevY,float[] prevZ,
+            float[] forceX,float[] forceY,float[] forceZ,
+            double[] inverseMass,
+            boolean intoPrevious,double gravity,double dampening,double deltaTSquared,double maxSpeed,double maxY) 
+    {
+        final float[] newX = intoPrevious ? prevX : posX;
+        final float[] newY = intoPrevious ? prevY : posY;
+        final float[] newZ = intoPrevious ? prevZ : posZ;
+        for ( int i = start ; i < end ; i++ ) 
+        {
+            final float currentX = posX[i];
+            final float currentY = posY[i];
+            final float currentZ = posZ[i];
+
+            double deltaX = currentX - (double) prevX[i];
+            double deltaY = currentY - (double) prevY[i];
+            double deltaZ = currentZ - (double) prevZ[i];
+
+            final double factor = inverseMass[i] / deltaTSquared;
+            deltaX += ( forceX[i] - deltaX * dampening ) * factor;
+            deltaY += ( ( forceY[i] + gravity ) - deltaY * dampening ) * factor;
+            deltaZ += ( forceZ[i] - deltaZ * dampening ) * factor;
+
+            // clamp to max. speed
+            final double speed = Math.sqrt( deltaX*deltaX + deltaY*deltaY + deltaZ*deltaZ );
+            final double scale = speed > maxSpeed ? maxSpeed / speed : 1.0;
+
+            final double newPosY = currentY + deltaY * scale;
+            if ( ! intoPrevious ) 
+            {
+                prevX[i] = currentX;
+                prevY[i] = currentY;
+                prevZ[i] = currentZ;
+            }
+            newX[i] = (float) ( currentX + deltaX * scale );
+            newY[i] = (float) ( newPosY > maxY ? maxY : newPosY );
+            newZ[i] = (float) ( currentZ + deltaZ * scale );
+        }
+    }
+
+    // column counterpart of the array loop above, all particles in the range must be movable
+    private static void integrateColumns(ParticleStore p,int start,int end,
+            boolean intoPrevious,double gravity,double dampening,double deltaTSquared,double maxSpeed,double maxY) 
+    {
+        final DoubleColumn newX = intoPrevious ? p.prevX : p.posX;
+        final DoubleColumn newY = intoPrevious ? p.prevY : p.posY;
+        final DoubleColumn newZ = intoPrevious ? p.prevZ : p.posZ;
+        for ( int i = start ; i < end ; i++ ) 
+        {
+            final double currentX = p.posX.get( i );
+            final double currentY = p.posY.get( i );
+            final double currentZ = p.posZ.get( i );
+
+            double deltaX = currentX - p.prevX.get( i );
+            double deltaY = currentY - p.prevY.get( i );
+            double deltaZ = currentZ - p.prevZ.get( i );
+
+            final double factor = p.inverseMass.get( i ) / deltaTSquared;
+            deltaX += ( p.forceX.get( i ) - deltaX * dampening ) * factor;
+            deltaY += ( ( p.forceY.get( i ) + gravity ) - deltaY * dampening ) * factor;
+            deltaZ += ( p.forceZ.get( i ) - deltaZ * dampening ) * factor;
+
+            // clamp to max. speed
+            final double speed = Math.sqrt( deltaX*deltaX + deltaY*deltaY + deltaZ*deltaZ );
+            final double scale = speed > maxSpeed ? maxSpeed / speed : 1.0;
+
+            final double newPosY = currentY + deltaY * scale;
+            if ( ! intoPrevious ) 
+            {
+                p.prevX.set( i , currentX );
+                p.prevY.set( i , currentY );
+                p.prevZ.set( i , currentZ );
+            }
+            newX.set( i , currentX + deltaX * scale );
+            newY.set( i , newPosY > maxY ? maxY : newPosY );
+            newZ.set( i , currentZ + deltaZ * scale );
+        }
+    }
+
+    /**
+     * Calculates the forces of springs <code>start...end-1</code>, the force acts on the 
+     * first endpoint and its negation on the second one.
+     */
+    public static void springForces(SpringTable s,ParticleStore p,int start,int end) 
+    {
+        if ( s.isArrayBacked() && p.isArrayBacked() ) 
+        {
+            springForces( start , end , 
+                    ((IntColumn.Heap) s.m1).array() , ((IntColumn.Heap) s.m2).array() , 
+                    ((DoubleColumn.Heap) s.restLength).array() , ((DoubleColumn.Heap) s.coefficient).array() , ((DoubleColumn.Heap) s.m1m2Ratio).array() , 
+                    ((DoubleColumn.Heap) s.forceX).array() , ((DoubleColumn.Heap) s.forceY).array() , ((DoubleColumn.Heap) s.forceZ).array() , 
+                    ((DoubleColumn.Heap) p.posX).array() , ((DoubleColumn.Heap) p.posY).array() , ((DoubleColumn.Heap) p.posZ).array() );
+        } 
+        else if ( s.isFloatArrayBacked() && p.isFloatArrayBacked() ) 
+        {
+            springForces( start , end , 
+                    ((IntColumn.Heap) s.m1).array() , ((IntColumn.Heap) s.m2).array() , 
+                    ((DoubleColumn.Heap) s.restLength).array() , ((DoubleColumn.Heap) s.coefficient).array() , ((DoubleColumn.Heap) s.m1m2Ratio).array() , 
+                    ((DoubleColumn.FloatHeap) s.forceX).array() , ((DoubleColumn.FloatHeap) s.forceY).array() , ((DoubleColumn.FloatHeap) s.forceZ).array() , 
+                    ((DoubleColumn.FloatHeap) p.posX).array() , ((DoubleColumn.FloatHeap) p.posY).array() , ((DoubleColumn.FloatHeap) p.posZ).array() );
+        } else {
+            springForcesColumns( s , p , start , end );
+        }
+    }
+
+    private static void springForces(int start,int end,
+            int[] m1,int[] m2,
+            double[] restLength,double[] coefficient,double[] m1m2Ratio,
+            double[] forceX,double[] forceY,double[] forceZ,
+            double[] posX,double[] posY,double[] posZ) 
+    {
+        for ( int spring = start ; spring < end ; spring++ )
+        {
+            final int i1 = m1[spring];
+            final int i2 = m2[spring];
+            final double dx = posX[i1] - posX[i2];
+            final double dy = posY[i1] - posY[i2];
+            final double dz = posZ[i1] - posZ[i2];
+
+            final double difference = restLength[spring] - Math.sqrt( dx*dx + dy*dy + dz*dz );
+            final double factor = m1m2Ratio[spring] * coefficient[spring] * difference;
+            forceX[spring] = dx * factor;
+            forceY[spring] = dy * factor;
+            forceZ[spring] = dz * factor;
+        }
+    }
+
+    // single-precision counterpart of the array loop above
+    private static void springForces(int start,int end,
+            int[] m1,int[] m2,
+            double[] restLength,double[] coefficient,double[] m1m2Ratio,
+            float[] forceX,float[] forceY,float[] forceZ,
+            float[] posX,float[] posY,float[] posZ) 
+    {
+        for ( int spring = start ; spring < end ; spring++ )
+        {
+            final int i1 = m1[spring];
+            final int i2 = m2[spring];
+            final double dx = (double) posX[i1] - posX[i2];
+            final double dy = (double) posY[i1] - posY[i2];
+            final double dz = (double) posZ[i1] - posZ[i2];
+
+            final double difference = restLength[spring] - Math.sqrt( dx*dx + dy*dy + dz*dz );
+            final double factor = m1m2Ratio[spring] * coefficient[spring] * difference;
+            forceX[spring] = (float) ( dx * factor );
+            forceY[spring] = (float) ( dy * factor );
+            forceZ[spring] = (float) ( dz * factor );
+        }
+    }
+
+    // column counterpart of the array loop above
+    private static void springForcesColumns(SpringTable s,ParticleStore p,int start,int end) 
+    {
+        for ( int spring = start ; spring < end ; spring++ )
+        {
+            final int i1 = s.m1.get( spring );
+            final int i2 = s.m2.get( spring );
+            final double dx = p.posX.get( i1 ) - p.posX.get( i2 );
+            final double dy = p.posY.get( i1 ) - p.posY.get( i2 );
+            final double dz = p.posZ.get( i1 ) - p.posZ.get( i2 );
+
+            final double difference = s.restLength.get( spring ) - Math.sqrt( dx*dx + dy*dy + dz*dz );
+            final double factor = s.m1m2Ratio.get( spring ) * s.coefficient.get( spring ) * difference;
+            s.forceX.set( spring , dx * factor );
+            s.forceY.set( spring , dy * factor );
+            s.forceZ.set( spring , dz * factor );
+        }
+    }
+
+    /**
+     * Sets the force of particles <code>start...end-1</code> to the sum of the forces of their springs, 
+     * adding them up in adjacency order.
+     */
+    public static void gatherSpringForces(SpringAdjacency a,SpringTable s,ParticleStore p,int start,int end) 
+    {
+        if ( s.isArrayBacked() && p.isArrayBacked() ) 
+        {
+            gatherSpringForces( start , end , a.offset , a.degree , a.spring , a.sign , 
+                    ((DoubleColumn.Heap) s.forceX).array() , ((DoubleColumn.Heap) s.forceY).array() , ((DoubleColumn.Heap) s.forceZ).array() , 
+                    ((DoubleColumn.Heap) p.forceX).array() , ((DoubleColumn.Heap) p.forceY).array() , ((DoubleColumn.Heap) p.forceZ).array() );
+        } 
+        else if ( s.isFloatArrayBacked() && p.isFloatArrayBacked() ) 
+        {
+            gatherSpringForces( start , end , a.offset , a.degree , a.spring , a.sign , 
+                    ((DoubleColumn.FloatHeap) s.forceX).array() , ((DoubleColumn.FloatHeap) s.forceY).array() , ((DoubleColumn.FloatHeap) s.forceZ).array() , 
+                    ((DoubleColumn.FloatHeap) p.forceX).array() , ((DoubleColumn.FloatHeap) p.forceY).array() , ((DoubleColumn.FloatHeap) p.forceZ).array() );
+        } else {
+            gatherSpringForcesColumns( a , s , p , start , end );
+        }
+    }
+
+    private static void gatherSpringForces(int start,int end,
+            int[] offset,int[] degree,int[] springs,double[] sign,
+            double[] springForceX,double[] springForceY,double[] springForceZ,
+            double[] forceX,double[] forceY,double[] forceZ) 
+    {
+        for ( int mass = start ; mass < end ; mass++ ) 
+        {
+            double sumX = 0;
+            double sumY = 0;
+            double sumZ = 0;
+            for ( int i = offset[mass] , last = i + degree[mass] ; i < last ; i++ ) 
+            {
+                final int s = springs[i];
+                sumX += sign[i] * springForceX[s];
+                sumY += sign[i] * springForceY[s];
+                sumZ += sign[i] * springForceZ[s];
+            }
+            forceX[mass] = sumX;
+            forceY[mass] = sumY;
+            forceZ[mass] = sumZ;
+        }
+    }
+
+    // single-precision counterpart of the array loop above
+    private static void gatherSpringForces(int start,int end,
+            int[] offset,int[] degree,int[] springs,double[] sign,
+            float[] springForceX,float[] springForceY,float[] springForceZ,
+            float[] forceX,float[] forceY,float[] forceZ) 
+    {
+        for ( int mass = start ; mass < end ; mass++ ) 
+        {
+            double sumX = 0;
+            double sumY = 0;
+            double sumZ = 0;
+            for ( int i = offset[mass] , last = i + degree[mass] ; i < last ; i++ ) 
+            {
+                final int s = springs[i];
+                final double springSign = sign[i];
+                sumX += springSign * springForceX[s];
+                sumY += springSign * springForceY[s];
+                sumZ += springSign * springForceZ[s];
+            }
+            forceX[mass] = (float) sumX;
+            forceY[mass] = (float) sumY;
+            forceZ[mass] = (float) sumZ;
+        }
+    }
+
+    // column counterpart of the array loop above
+    private static void gatherSpringForcesColumns(SpringAdjacency a,SpringTable s,ParticleStore p,int start,int end) 
+    {
+        for ( int mass = start ; mass < end ; mass++ ) 
+        {
+            double sumX = 0;
+            double sumY = 0;
+            double sumZ = 0;
+            for ( int i = a.offset[ mass ] , last = i + a.degree[ mass ] ; i < last ; i++ ) 
+            {
+                final int spring = a.spring[i];
+                final double sign = a.sign[i];
+                sumX += sign * s.forceX.get( spring );
+                sumY += sign * s.forceY.get( spring );
+                sumZ += sign * s.forceZ.get( spring );
+            }
+            p.forceX.set( mass , sumX );
+            p.forceY.set( mass , sumY );
+            p.forceZ.set( mass , sumZ );
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Runs {@link PhaseProgram}s on long-lived workers that each own a fixed 
+ * share of every phase and advance through the phases in lock-step.
+ *
+ * <p>The calling thread participates as worker #0, so running a whole program
+ * only needs one hand-off to wake up the workers and one to wait for them, 
+ * phases are separated by a {@link SpinningBarrier}. Serial phases are run by the 
+ * calling thread while the others wait at the next barrier.</p>
+ */
+final class BarrierEngine implements ExecutionEngine 
+{
+    // spinning on a single CPU only delays the thread we are waiting for
+    private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 20000 : 0;
+
+    private final SpinningBarrier barrier;
+    private final Thread[] workers;
+
+    // published to the workers through the barrier
+    private PhaseProgram currentProgram;
+    private boolean shutdown;
+    private volatile Throwable failure;
+
+    private final RangeProgram rangeProgram = new RangeProgram();
+
+    /**
+     * Adapts {@link #forEach(int, int, RangeTask)} to a single-phase program.
+     */
+    private static final class RangeProgram implements PhaseProgram 
+    {
+        public int size;
+        public RangeTask task;
+
+        @Override
+        public int getPhaseCount() {
+            return 1;
+        }
+
+        @Override
+        public int getSize(int phase) {
+            return size;
+        }
+
+        @Override
+        public int getGrainSize(int phase) {
+            return size;
+        }
+
+        @Override
+        public void run(int phase,int start,int end) {
+            task.run( start , end );
+        }
+    }
+
+    public BarrierEngine(int threadCount) 
+    {
+        barrier = new SpinningBarrier( threadCount , SPIN_LIMIT );
+        workers = new Thread[ threadCount - 1 ];
+        for ( int i = 0 ; i < workers.length ; i++ ) 
+        {
+            final int party = i+1;
+            workers[i] = new Thread("calculation-thread") 
+            {
+                @Override
+                public void run() {
+                    workerLoop( party );
+                }
+            };
+            workers[i].setDaemon( true );
+            barrier.register( party , workers[i] );
+        }
+        for ( Thread t : workers ) {
+            t.start();
+        }
+    }
+
+    private void workerLoop(int party) 
+    {
+        while ( true ) 
+        {
+            barrier.await();
+            if ( shutdown ) {
+                return;
+            }
+            runProgram( currentProgram , party );
+            barrier.await();
+        }
+    }
+
+    private void runProgram(PhaseProgram program,int party) 
+    {
+        final int parties = barrier.getParties();
+        final int phaseCount = program.getPhaseCount();
+        for ( int phase = 0 ; phase < phaseCount ; phase++ ) 
+        {
+            if ( phase > 0 ) {
+                barrier.await();
+            }
+            // after a failure, keep arriving at the barriers so the other threads do not get stuck
+            if ( failure != null ) {
+                continue;
+            }
+            try 
+            {
+                final int size = program.getSize( phase );
+                if ( size == PhaseProgram.SERIAL ) 
+                {
+                    if ( party == 0 ) {
+                        program.run( phase , 0 , 0 );
+                    }
+                } 
+                else 
+                {
+                    final int start = (int) ( (long) size * party / parties );
+                    final int end = (int) ( (long) size * (party+1) / parties );
+                    if ( start < end ) {
+                        program.run( phase , start , end );
+                    }
+                }
+            } 
+            catch(Throwable t) {
+                failure = t;
+            }
+        }
+    }
+
+    @Override
+    public void run(PhaseProgram program) 
+    {
+        currentProgram = program;
+        barrier.register( 0 , Thread.currentThread() );
+        barrier.await();
+        runProgram( program , 0 );
+        barrier.await();
+
+        final Throwable t = failure;
+        if ( t != null ) 
+        {
+            failure = null;
+            throw new RuntimeException("Phase execution failed",t);
+        }
+    }
+
+    @Override
+    public void forEach(int size,int grainSize,RangeTask task) 
+    {
+        rangeProgram.size = size;
+        rangeProgram.task = task;
+        run( rangeProgram );
+    }
+
+    @Override
+    public int getThreadCount() {
+        return barrier.getParties();
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException 
+    {
+        shutdown = true;
+        barrier.register( 0 , Thread.currentThread() );
+        barrier.await();
+        for ( Thread t : workers ) {
+            t.join( 60*1000 );
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed-size column of <code>byte</code> values.
+ * 
+ * @see StorageType
+ */
+public interface ByteColumn 
+{
+    public int size();
+
+    public byte get(int index);
+
+    public void set(int index,byte value);
+
+    /**
+     * Copies values <code>0...length-1</code> from another column.
+     */
+    public void copyFrom(ByteColumn source,int length);
+
+    /**
+     * Column backed by a <code>byte[]</code> array.
+     */
+    public static final class Heap implements ByteColumn 
+    {
+        private final byte[] values;
+
+        public Heap(int size) {
+            this.values = new byte[size];
+        }
+
+        /**
+         * Returns the backing array, for use by {@link GridStencil}.
+         */
+        public byte[] array() {
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public byte get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void set(int index, byte value) {
+            values[index] = value;
+        }
+
+        @Override
+        public void copyFrom(ByteColumn source, int length) 
+        {
+            if ( source instanceof Heap ) {
+                System.arraycopy( ((Heap) source).values , 0 , values , 0 , length );
+            } else {
+                for ( int i = 0 ; i < length ; i++ ) {
+                    values[i] = source.get(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Column backed by native memory outside of the Java heap.
+     */
+    public static final class Direct implements ByteColumn 
+    {
+        private final ByteBuffer values;
+
+        public Direct(int size) {
+            this.values = ByteBuffer.allocateDirect( size );
+        }
+
+        @Override
+        public int size() {
+            return values.capacity();
+        }
+
+        @Override
+        public byte get(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public void set(int index, byte value) {
+            values.put(index,value);
+        }
+
+        @Override
+        public void copyFrom(ByteColumn source, int length) 
+        {
+            if ( source instanceof Direct ) 
+            {
+                final ByteBuffer src = ((Direct) source).values.duplicate();
+                src.limit( length );
+                final ByteBuffer dst = values.duplicate();
+                dst.put( src );
+            } else {
+                for ( int i = 0 ; i < length ; i++ ) {
+                    values.put( i , source.get(i) );
+                }
+            }
+        }
+    }
+}
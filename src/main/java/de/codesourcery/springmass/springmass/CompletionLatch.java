@@ -0,0 +1,71 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A re-usable count-down latch for a single waiting thread.
+ *
+ * <p>Unlike {@link java.util.concurrent.CountDownLatch} this latch can be 
+ * re-armed so dispatching a batch of tasks does not need to allocate anything.</p>
+ */
+public final class CompletionLatch 
+{
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Thread waiter;
+
+    /**
+     * Arms the latch, must be called by the thread that is going 
+     * to invoke {@link #await()} before any of the tasks is started.
+     * 
+     * @param count number of times {@link #countDown()} needs to be called
+     */
+    public void reset(int count) 
+    {
+        waiter = Thread.currentThread();
+        pending.set( count );
+    }
+
+    public void countDown() 
+    {
+        if ( pending.decrementAndGet() == 0 ) {
+            LockSupport.unpark( waiter );
+        }
+    }
+
+    /**
+     * Waits until the count reached zero.
+     * 
+     * <p>Interrupts are deferred until all tasks have finished because callers
+     * re-use their task objects right after this method returns.</p>
+     */
+    public void await() 
+    {
+        boolean interrupted = false;
+        while ( pending.get() != 0 ) 
+        {
+            LockSupport.park( this );
+            if ( Thread.interrupted() ) {
+                interrupted = true;
+            }
+        }
+        if ( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -30,12 +30,14 @@ import java.util.Map;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
 import javax.swing.JColorChooser;
+import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSlider;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
@@ -52,6 +54,8 @@ public abstract class ControlPanel extends JPanel {
 	
 	private final Map<SimulationParameter,JComponent> components = new HashMap<>();
 	
+	private final JPanel inputPanel = new JPanel();
+	
 	protected static final class ValueConverter {
 		
 		private final SimulationParameter p;
@@ -198,7 +202,6 @@ public abstract class ControlPanel extends JPanel {
 	{
 		// setup input panel
 		final List<SimulationParameter> params = builder.getParameters();
-		final JPanel inputPanel = new JPanel();
 		inputPanel.setLayout( new GridLayout( params.size() , 2 ) );
 		
 		populateInputPanel(params, inputPanel);
@@ -266,6 +269,29 @@ public abstract class ControlPanel extends JPanel {
 		add( resetButton , cnstrs );
 	}
 
+	/**
+	 * Shows batch sizes picked by auto-tuning, may be invoked from any thread.
+	 * 
+	 * @param tunedParameters
+	 * @see Simulator#partitioningTuned(SimulationParameters)
+	 */
+	public void partitioningTuned(final SimulationParameters tunedParameters) 
+	{
+		SwingUtilities.invokeLater( new Runnable() {
+
+			@Override
+			public void run() 
+			{
+				builder.setForkJoinBatchSize( tunedParameters.getForkJoinBatchSize() );
+				builder.setSpringBatchFactor( tunedParameters.getSpringBatchFactor() );
+				parameters = builder.build();
+				inputPanel.removeAll();
+				populateInputPanel( builder.getParameters() , inputPanel );
+				revalidate();
+			}
+		});
+	}
+
 	private void populateInputPanel(final List<SimulationParameter> params,final JPanel inputPanel) 
 	{
 		for ( SimulationParameter p : params ) 
@@ -333,6 +359,23 @@ public abstract class ControlPanel extends JPanel {
 				result = tmp;
 			}
 		} 
+		else if ( p.getType().isEnum() ) 
+		{
+			final JComboBox<Object> tmp = new JComboBox<>( p.getType().getEnumConstants() );
+			tmp.setSelectedItem( p.getValue() );
+			tmp.addActionListener( new ActionListener() 
+			{
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					converter.apply( tmp.getSelectedItem() );
+				}
+			});
+			if ( p.isReadOnly() ) 
+			{
+				tmp.setEnabled( false );
+			}
+			result = tmp;
+		}
 		else 
 		{
 			final JTextField tmp = new JTextField();
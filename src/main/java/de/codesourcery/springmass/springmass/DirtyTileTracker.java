@@ -0,0 +1,220 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.Arrays;
+
+/**
+ * Tracks which square tiles of the particle grid changed, so that 
+ * {@link RenderSnapshot}s only need to copy those.
+ * 
+ * <p>Keeps a reference copy of positions and flags in row-major grid order. After each 
+ * step, a tile whose particles moved more than <code>epsilon</code> away from their 
+ * reference positions (or whose flags changed) is stamped with the current version 
+ * and its reference copy is refreshed. Snapshots are written from the reference copy, so 
+ * a snapshot never deviates more than <code>epsilon</code> from the simulation, and copying 
+ * all tiles stamped after the version a snapshot was last written with brings it up to date.</p>
+ * 
+ * <p>The tracker also keeps the link masks of intact springs, so that snapshots can be written
+ * from the tracker alone while the simulation already computes the next step. It is not 
+ * thread-safe, {@link SpringMassSystem} synchronizes on the tracker.</p>
+ * 
+ * @see SimulationParameters#getSnapshotEpsilon()
+ */
+final class DirtyTileTracker implements RangeTask 
+{
+    public static final int TILE_SIZE = 8;
+
+    private final ParticleStore particles;
+    private final double epsilonSquared;
+
+    private final int tileColumns;
+    private final int tileCount;
+
+    // reference state, row-major
+    private final double[] x;
+    private final double[] y;
+    private final double[] z;
+    private final byte[] flags;
+    // see RenderSnapshot#links, written by SpringMassSystem
+    final byte[] links;
+    private int springCount = -1;
+
+    // version each tile was last changed in
+    private final long[] stamps;
+    private long version = 1;
+
+    public DirtyTileTracker(ParticleStore particles,double epsilon) 
+    {
+        this.particles = particles;
+        this.epsilonSquared = epsilon*epsilon;
+        this.tileColumns = ( particles.columns + TILE_SIZE - 1 ) / TILE_SIZE;
+        this.tileCount = tileColumns * ( ( particles.rows + TILE_SIZE - 1 ) / TILE_SIZE );
+
+        final int count = particles.columns * particles.rows;
+        x = new double[count];
+        y = new double[count];
+        z = new double[count];
+        flags = new byte[count];
+        links = new byte[count];
+        stamps = new long[tileCount];
+        Arrays.fill( stamps , version );
+        for ( int tile = 0 ; tile < tileCount ; tile++ ) {
+            copyTile( tile );
+        }
+    }
+
+    /**
+     * Stamps all tiles that changed since the last invocation, tiles are checked in parallel.
+     * 
+     * @param engine
+     * @param batchSize preferred number of particles per chunk
+     */
+    public void update(ExecutionEngine engine,int batchSize) 
+    {
+        version++;
+        engine.forEach( tileCount , Math.max( 1 , batchSize / ( TILE_SIZE*TILE_SIZE ) ) , this );
+    }
+
+    /**
+     * Checks tiles <code>start...end-1</code>.
+     */
+    @Override
+    public void run(int start,int end) 
+    {
+        for ( int tile = start ; tile < end ; tile++ ) 
+        {
+            if ( hasChanged( tile ) ) 
+            {
+                copyTile( tile );
+                stamps[tile] = version;
+            }
+        }
+    }
+
+    private boolean hasChanged(int tile) 
+    {
+        final ParticleStore p = particles;
+        final int firstColumn = ( tile % tileColumns ) * TILE_SIZE;
+        final int firstRow = ( tile / tileColumns ) * TILE_SIZE;
+        final int lastColumn = Math.min( firstColumn + TILE_SIZE , p.columns );
+        final int lastRow = Math.min( firstRow + TILE_SIZE , p.rows );
+        for ( int row = firstRow ; row < lastRow ; row++ ) 
+        {
+            for ( int column = firstColumn ; column < lastColumn ; column++ ) 
+            {
+                final int mass = p.index( column , row );
+                final int index = row * p.columns + column;
+                if ( p.flags.get( mass ) != flags[index] ) {
+                    return true;
+                }
+                final double dx = p.posX.get( mass ) - x[index];
+                final double dy = p.posY.get( mass ) - y[index];
+                final double dz = p.posZ.get( mass ) - z[index];
+                if ( dx*dx + dy*dy + dz*dz > epsilonSquared ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void copyTile(int tile) 
+    {
+        final ParticleStore p = particles;
+        final int firstColumn = ( tile % tileColumns ) * TILE_SIZE;
+        final int firstRow = ( tile / tileColumns ) * TILE_SIZE;
+        final int lastColumn = Math.min( firstColumn + TILE_SIZE , p.columns );
+        final int lastRow = Math.min( firstRow + TILE_SIZE , p.rows );
+        for ( int row = firstRow ; row < lastRow ; row++ ) 
+        {
+            for ( int column = firstColumn ; column < lastColumn ; column++ ) 
+            {
+                final int mass = p.index( column , row );
+                final int index = row * p.columns + column;
+                x[index] = p.posX.get( mass );
+                y[index] = p.posY.get( mass );
+                z[index] = p.posZ.get( mass );
+                flags[index] = p.flags.get( mass );
+            }
+        }
+    }
+
+    /**
+     * To be called after {@link #links} have been rewritten.
+     * 
+     * @param springCount number of intact springs
+     */
+    public void linksChanged(int springCount) {
+        this.springCount = springCount;
+    }
+
+    /**
+     * @return number of intact springs in {@link #links}, <code>-1</code> if links have not been written yet
+     */
+    public int getSpringCount() {
+        return springCount;
+    }
+
+    /**
+     * Brings a snapshot up to date.
+     * 
+     * @param snapshot
+     * @return number of tiles copied
+     */
+    public int writeTo(RenderSnapshot snapshot) 
+    {
+        final boolean fullCopy = snapshot.source != this;
+        final int copied = writeTiles( snapshot , fullCopy ? 0 : snapshot.version );
+
+        // springs are only ever removed, so an unchanged count means nothing was torn
+        if ( fullCopy || snapshot.springCount != springCount ) 
+        {
+            System.arraycopy( links , 0 , snapshot.links , 0 , links.length );
+            snapshot.springCount = springCount;
+        }
+        snapshot.source = this;
+        snapshot.version = version;
+        return copied;
+    }
+
+    // copies all tiles stamped after a given version, 0 copies all tiles 
+    private int writeTiles(RenderSnapshot snapshot,long sinceVersion) 
+    {
+        final int columns = particles.columns;
+        int copied = 0;
+        for ( int tile = 0 ; tile < tileCount ; tile++ ) 
+        {
+            if ( stamps[tile] <= sinceVersion ) {
+                continue;
+            }
+            copied++;
+            final int firstColumn = ( tile % tileColumns ) * TILE_SIZE;
+            final int firstRow = ( tile / tileColumns ) * TILE_SIZE;
+            final int length = Math.min( TILE_SIZE , columns - firstColumn );
+            final int lastRow = Math.min( firstRow + TILE_SIZE , particles.rows );
+            for ( int row = firstRow ; row < lastRow ; row++ ) 
+            {
+                final int index = row * columns + firstColumn;
+                System.arraycopy( x , index , snapshot.x , index , length );
+                System.arraycopy( y , index , snapshot.y , index , length );
+                System.arraycopy( z , index , snapshot.z , index , length );
+                System.arraycopy( flags , index , snapshot.flags , index , length );
+            }
+        }
+        return copied;
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A fixed-size column of <code>double</code> values.
+ * 
+ * <p>The <code>Float</code> implementations round values to single precision 
+ * when storing them, halving the memory footprint and bandwidth of the column.</p>
+ * 
+ * @see StorageType
+ */
+public interface DoubleColumn 
+{
+    public int size();
+
+    public double get(int index);
+
+    public void set(int index,double value);
+
+    /**
+     * Copies values <code>0...length-1</code> from another column.
+     */
+    public void copyFrom(DoubleColumn source,int length);
+
+    /**
+     * Column backed by a <code>double[]</code> array.
+     */
+    public static final class Heap implements DoubleColumn 
+    {
+        private final double[] values;
+
+        public Heap(int size) {
+            this.values = new double[size];
+        }
+
+        /**
+         * Returns the backing array, for use by {@link ArrayKernels}.
+         */
+        public double[] array() {
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void set(int index, double value) {
+            values[index] = value;
+        }
+
+        @Override
+        public void copyFrom(DoubleColumn source, int length) 
+        {
+            if ( source instanceof Heap ) {
+                System.arraycopy( ((Heap) source).values , 0 , values , 0 , length );
+            } else {
+                for ( int i = 0 ; i < length ; i++ ) {
+                    values[i] = source.get(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Column backed by native memory outside of the Java heap.
+     */
+    public static final class Direct implements DoubleColumn 
+    {
+        private final DoubleBuffer values;
+
+        public Direct(int size) {
+            this.values = ByteBuffer.allocateDirect( size*8 ).order( ByteOrder.nativeOrder() ).asDoubleBuffer();
+        }
+
+        @Override
+        public int size() {
+            return values.capacity();
+        }
+
+        @Override
+        public double get(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public void set(int index, double value) {
+            values.put(index,value);
+        }
+
+        @Override
+        public void copyFrom(DoubleColumn source, int length) 
+        {
+            if ( source instanceof Direct ) 
+            {
+                final DoubleBuffer src = ((Direct) source).values.duplicate();
+                src.limit( length );
+                final DoubleBuffer dst = values.duplicate();
+                dst.put( src );
+            } else {
+                for ( int i = 0 ; i < length ; i++ ) {
+                    values.put( i , source.get(i) );
+                }
+            }
+        }
+    }
+
+    /**
+     * Single-precision column backed by a <code>float[]</code> array.
+     */
+    public static final class FloatHeap implements DoubleColumn 
+    {
+        private final float[] values;
+
+        public FloatHeap(int size) {
+            this.values = new float[size];
+        }
+
+        /**
+         * Returns the backing array, for use by {@link ArrayKernels}.
+         */
+        public float[] array() {
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public double get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void set(int index, double value) {
+            values[index] = (float) value;
+        }
+
+        @Override
+        public void copyFrom(DoubleColumn source, int length) 
+        {
+            if ( source instanceof FloatHeap ) {
+                System.arraycopy( ((FloatHeap) source).values , 0 , values , 0 , length );
+            } else {
+                for ( int i = 0 ; i < length ; i++ ) {
+                    values[i] = (float) source.get(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Single-precision column backed by native memory outside of the Java heap.
+     */
+    public static final class FloatDirect implements DoubleColumn 
+    {
+        private final FloatBuffer values;
+
+        public FloatDirect(int size) {
+            this.values = ByteBuffer.allocateDirect( size*4 ).order( ByteOrder.nativeOrder() ).asFloatBuffer();
+        }
+
+        @Override
+        public int size() {
+            return values.capacity();
+        }
+
+        @Override
+        public double get(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public void set(int index, double value) {
+            values.put(index,(float) value);
+        }
+
+        @Override
+        public void copyFrom(DoubleColumn source, int length) 
+        {
+            if ( source instanceof FloatDirect ) 
+            {
+                final FloatBuffer src = ((FloatDirect) source).values.duplicate();
+                src.limit( length );
+                final FloatBuffer dst = values.duplicate();
+                dst.put( src );
+            } else {
+                for ( int i = 0 ; i < length ; i++ ) {
+                    values.put( i , (float) source.get(i) );
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Executes the data-parallel phases of a {@link SpringMassSystem}.
+ *
+ * <p>Implementations should not allocate per invocation once warmed up, 
+ * as {@link SpringMassSystem#step()} runs several phases per frame. The workers 
+ * of {@link ExecutionEngineType#THREAD_POOL} are the only exception.</p>
+ *
+ * @see ExecutionEngineType
+ */
+public interface ExecutionEngine 
+{
+    /**
+     * Processes the range <code>0...size-1</code> in parallel and waits for completion.
+     *
+     * <p>The range is cut into chunks of <code>grainSize</code> elements 
+     * (the last one may be smaller), each chunk is handed to the task exactly once.</p>
+     *
+     * @param size
+     * @param grainSize
+     * @param task
+     */
+    public void forEach(int size,int grainSize,RangeTask task);
+
+    /**
+     * Runs all phases of a program and waits for completion.
+     */
+    public void run(PhaseProgram program);
+
+    public int getThreadCount();
+
+    public void shutdown() throws InterruptedException;
+}
@@ -0,0 +1,91 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Available {@link ExecutionEngine}s.
+ *
+ * <p>{@link #THREAD_POOL} queues one task per chunk on a fixed thread pool, the calling thread
+ * runs chunks itself once the queue is full. It is the only engine whose workers allocate 
+ * memory while stepping. {@link #FORK_JOIN} recursively splits ranges 
+ * on a work-stealing pool so idle workers pick up chunks from busy ones. {@link #PHASE_BARRIER} 
+ * keeps workers with fixed partitions that step through all phases of a frame, 
+ * synchronizing on a spinning barrier (the calling thread counts as one of the workers). 
+ * {@link #SINGLE_THREADED} does all work on the calling thread.</p>
+ */
+public enum ExecutionEngineType 
+{
+    THREAD_POOL 
+    {
+        @Override
+        public ExecutionEngine createEngine(int threadCount) {
+            return new ThreadPoolEngine( threadCount > 0 ? threadCount : getDefaultThreadCount() );
+        }
+    },
+    FORK_JOIN 
+    {
+        @Override
+        public ExecutionEngine createEngine(int threadCount) {
+            return new ForkJoinEngine( threadCount > 0 ? threadCount : getDefaultThreadCount() );
+        }
+    },
+    PHASE_BARRIER 
+    {
+        @Override
+        public ExecutionEngine createEngine(int threadCount) {
+            return new BarrierEngine( threadCount > 0 ? threadCount : getDefaultThreadCount() );
+        }
+
+        @Override
+        public boolean isUsingGrainSize() {
+            return false;
+        }
+    },
+    SINGLE_THREADED 
+    {
+        @Override
+        public ExecutionEngine createEngine(int threadCount) {
+            return new SingleThreadedEngine();
+        }
+
+        @Override
+        public boolean isUsingGrainSize() {
+            return false;
+        }
+    };
+
+    /**
+     * @param threadCount number of worker threads, values &lt;= 0 select {@link #getDefaultThreadCount()}
+     */
+    public abstract ExecutionEngine createEngine(int threadCount);
+
+    /**
+     * @return whether the engine splits ranges into chunks of the requested grain size, 
+     * {@link #PHASE_BARRIER} always gives each worker an equal share
+     */
+    public boolean isUsingGrainSize() {
+        return true;
+    }
+
+    public static int getDefaultThreadCount() 
+    {
+        int poolSize = Runtime.getRuntime().availableProcessors()-2;
+        if ( poolSize <= 0 ) {
+            poolSize+=2;
+        }
+        return poolSize;
+    }
+}
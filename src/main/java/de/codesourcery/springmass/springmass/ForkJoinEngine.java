@@ -0,0 +1,207 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recursively splits ranges in halves on a work-stealing {@link ForkJoinPool}.
+ *
+ * <p>The tree of split tasks is built once (and re-built only when a range with more 
+ * chunks than ever before is processed), tasks are re-initialized by their parents 
+ * before being forked again.</p>
+ * 
+ * <p>The calling thread only submits the work and parks on a {@link CompletionLatch} until 
+ * it is done. It must never run any of the split tasks itself (as {@link ForkJoinPool#invoke(java.util.concurrent.ForkJoinTask)} 
+ * may do), since tasks forked from a thread outside of the pool end up in the common pool.</p>
+ */
+final class ForkJoinEngine extends AbstractExecutionEngine 
+{
+    private final ForkJoinPool pool;
+
+    private final CompletionLatch latch = new CompletionLatch();
+    // see forEach()
+    private final Root[] rootTasks = { new Root() , new Root() , new Root() , new Root() };
+    private int nextRoot;
+
+    private Split root;
+    private int capacity;
+    private volatile Throwable failure;
+
+    // state of the current invocation, published to the workers by forking the tasks
+    private RangeTask currentTask;
+    private int currentSize;
+    private int currentGrainSize;
+    private int currentChunkCount;
+
+    /**
+     * Covers chunks <code>firstChunk...lastChunk-1</code>.
+     */
+    private final class Split extends RecursiveAction 
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int firstChunk;
+        private final int lastChunk;
+        private final Split left;
+        private final Split right;
+
+        public Split(int firstChunk,int lastChunk) 
+        {
+            this.firstChunk = firstChunk;
+            this.lastChunk = lastChunk;
+            if ( lastChunk - firstChunk > 1 ) 
+            {
+                final int middle = ( firstChunk + lastChunk ) >>> 1;
+                left = new Split( firstChunk , middle );
+                right = new Split( middle , lastChunk );
+            } else {
+                left = right = null;
+            }
+        }
+
+        @Override
+        protected void compute()
+        {
+            if ( firstChunk >= currentChunkCount ) {
+                return;
+            }
+            if ( left == null ) 
+            {
+                final int start = firstChunk * currentGrainSize;
+                currentTask.run( start , Math.min( start + currentGrainSize , currentSize ) );
+                return;
+            }
+            left.reinitialize();
+            right.reinitialize();
+            if ( right.firstChunk >= currentChunkCount ) {
+                left.compute();
+            } else {
+                invokeAll( left , right );
+            }
+        }
+    }
+
+    private final class Root extends RecursiveAction 
+    {
+        private static final long serialVersionUID = 1L;
+
+        private boolean submitted;
+
+        @Override
+        protected void compute()
+        {
+            try {
+                root.compute();
+            } 
+            catch(Throwable t) {
+                failure = t;
+            } 
+            finally {
+                latch.countDown();
+            }
+        }
+    }
+
+    public ForkJoinEngine(int threadCount) 
+    {
+        final ForkJoinPool.ForkJoinWorkerThreadFactory threadFactory = new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool)
+            {
+                final ForkJoinWorkerThread t = new ForkJoinWorkerThread( pool ) {};
+                t.setName("calculation-thread");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        pool = new ForkJoinPool( threadCount , threadFactory , null , false );
+    }
+
+    @Override
+    public void forEach(int size,int grainSize,RangeTask task) 
+    {
+        final int chunkCount = ( size + grainSize - 1 ) / grainSize;
+        if ( chunkCount == 0 ) {
+            return;
+        }
+        if ( chunkCount > capacity ) 
+        {
+            root = new Split( 0 , chunkCount );
+            capacity = chunkCount;
+        }
+
+        currentTask = task;
+        currentSize = size;
+        currentGrainSize = grainSize;
+        currentChunkCount = chunkCount;
+
+        final Root rootTask = nextRootTask();
+        rootTask.reinitialize();
+        rootTask.submitted = true;
+        latch.reset( 1 );
+        pool.execute( rootTask );
+        latch.await();
+
+        final Throwable t = failure;
+        if ( t != null ) 
+        {
+            failure = null;
+            throw new RuntimeException("Phase execution failed",t);
+        }
+    }
+
+    /**
+     * Returns a root task that may be re-initialized.
+     * 
+     * <p>The pool marks a root task as completed only after compute() returned, which
+     * may be after the latch was released. Re-initializing a task that is not yet marked as 
+     * completed would get the reset overwritten, so the task would never run again. 
+     * Root tasks are used round-robin, skipping the ones the pool has not completed yet. 
+     * Only if none has been completed the caller blocks until the oldest one is.</p>
+     */
+    private Root nextRootTask() 
+    {
+        for ( int i = 0 ; i < rootTasks.length ; i++ ) 
+        {
+            final Root candidate = rootTasks[ nextRoot ];
+            nextRoot = ( nextRoot + 1 ) % rootTasks.length;
+            if ( ! candidate.submitted || candidate.isDone() ) {
+                return candidate;
+            }
+        }
+        final Root oldest = rootTasks[ nextRoot ];
+        nextRoot = ( nextRoot + 1 ) % rootTasks.length;
+        oldest.quietlyJoin();
+        return oldest;
+    }
+
+    @Override
+    public int getThreadCount() {
+        return pool.getParallelism();
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException 
+    {
+        pool.shutdown();
+        pool.awaitTermination(60,TimeUnit.SECONDS );
+    }
+}
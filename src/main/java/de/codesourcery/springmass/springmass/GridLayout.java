@@ -0,0 +1,34 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Order in which the particles of the grid are stored in memory.
+ */
+public enum GridLayout 
+{
+    /**
+     * Particle <code>(x,y)</code> is stored at <code>x*rows+y</code>, 
+     * vertical neighbours are adjacent in memory while horizontal neighbours
+     * are a whole column apart.
+     */
+    COLUMN_MAJOR,
+    /**
+     * Particles are stored along a Z-order (Morton) curve, so both horizontal
+     * and vertical neighbours are usually close to each other in memory.
+     */
+    MORTON;
+}
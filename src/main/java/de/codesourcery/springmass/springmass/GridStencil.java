@@ -0,0 +1,708 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Implicit spring topology for a regular particle grid.
+ * 
+ * <p>Instead of storing every spring, each particle owns up to {@link #LINK_COUNT} springs 
+ * to neighbours at fixed grid offsets. A per-particle bit mask records which of 
+ * these springs are still intact, rest lengths are shared by all springs of a link type.</p>
+ * 
+ * <p>Forces are gathered per particle in the same order the {@link SpringAdjacency} 
+ * of an equivalent {@link SpringTable} would sum them, so both solvers produce identical results.</p>
+ * 
+ * <p>With {@link GridLayout#COLUMN_MAJOR} heap storage, neighbours are a constant index offset 
+ * apart and forces are gathered directly on the backing arrays, computing each spring only once 
+ * per range. Other layouts and storage types look up neighbours by grid position.</p>
+ */
+public final class GridStencil 
+{
+    public static final int LINK_RIGHT = 0; // (x+1,y)
+    public static final int LINK_DOWN = 1; // (x,y+1)
+    public static final int LINK_DIAGONAL = 2; // (x+1,y+1)
+    public static final int LINK_ANTI_DIAGONAL = 3; // (x+1,y-1)
+    public static final int LINK_RIGHT2 = 4; // (x+2,y)
+    public static final int LINK_DOWN2 = 5; // (x,y+2)
+
+    public static final int LINK_COUNT = 6;
+
+    private static final int[] LINK_DX = { 1 , 0 , 1 ,  1 , 2 , 0 };
+    private static final int[] LINK_DY = { 0 , 1 , 1 , -1 , 0 , 2 };
+
+    private static final byte[] LINK_TYPE = { 
+        SpringTable.TYPE_STRUCTURAL , SpringTable.TYPE_STRUCTURAL , 
+        SpringTable.TYPE_SHEAR , SpringTable.TYPE_SHEAR , 
+        SpringTable.TYPE_BEND , SpringTable.TYPE_BEND };
+
+    /* 
+     * Order in which the springs attached to a particle are summed up, 
+     * matching the order SpringMassSystemFactory adds the springs to a SpringTable.
+     */
+    private static final int[] GATHER_LINK = { 
+        LINK_RIGHT , LINK_RIGHT , 
+        LINK_DOWN , LINK_DOWN , 
+        LINK_DIAGONAL , LINK_ANTI_DIAGONAL , LINK_ANTI_DIAGONAL , LINK_DIAGONAL ,
+        LINK_RIGHT2 , LINK_RIGHT2 ,
+        LINK_DOWN2 , LINK_DOWN2 };
+
+    // true if the particle is the second mass of the spring
+    private static final boolean[] GATHER_BACKWARD = { 
+        true , false , 
+        true , false , 
+        true , true , false , false , 
+        true , false , 
+        true , false };
+
+    private final ParticleStore particles;
+
+    // whether the array loops can be used, see class comment
+    private final boolean arrayBacked;
+    // index offset from a particle to its neighbour along a link, only valid if arrayBacked
+    private final int[] linkOffset = new int[ LINK_COUNT ];
+    // bit 1 << link is set if the particle's owner along link is inside the grid, null unless arrayBacked
+    private final byte[] ownerLinks;
+    // factor of the spring a particle owns along a link at index particle*LINK_COUNT+link, null unless arrayBacked
+    private final double[] springFactor;
+
+    private final double[] restLength = new double[ LINK_COUNT ];
+    private final double coefficient;
+
+    /**
+     * Bit <code>1 &lt;&lt; link</code> is set if the particle's spring along <code>link</code> is intact.
+     */
+    private ByteColumn links;
+    // written by tearAndGatherForces(), see swapLinkBuffers()
+    private ByteColumn nextLinks;
+
+    // number of set link bits, ranges that tore springs subtract concurrently
+    private final AtomicInteger springCount = new AtomicInteger();
+
+    public GridStencil(ParticleStore particles,double horizontalRestLength,double verticalRestLength,double coefficient) 
+    {
+        this( particles , coefficient );
+
+        restLength[ LINK_RIGHT ] = horizontalRestLength;
+        restLength[ LINK_DOWN ] = verticalRestLength;
+        restLength[ LINK_DIAGONAL ] = Math.sqrt( horizontalRestLength*horizontalRestLength + verticalRestLength*verticalRestLength );
+        restLength[ LINK_ANTI_DIAGONAL ] = restLength[ LINK_DIAGONAL ];
+        restLength[ LINK_RIGHT2 ] = 2 * horizontalRestLength;
+        restLength[ LINK_DOWN2 ] = 2 * verticalRestLength;
+
+        for ( int x = 0 ; x < particles.columns ; x++ ) 
+        {
+            for ( int y = 0 ; y < particles.rows ; y++ ) 
+            {
+                int mask = 0;
+                for ( int link = 0 ; link < LINK_COUNT ; link++ ) 
+                {
+                    if ( isInsideGrid( x + LINK_DX[link] , y + LINK_DY[link] ) ) {
+                        mask |= 1 << link;
+                    }
+                }
+                links.set( particles.index( x , y ) , (byte) mask );
+                springCount.addAndGet( Integer.bitCount( mask ) );
+            }
+        }
+    }
+
+    private GridStencil(ParticleStore particles,double coefficient) 
+    {
+        this.particles = particles;
+        this.coefficient = coefficient;
+
+        arrayBacked = ( particles.isArrayBacked() || particles.isFloatArrayBacked() ) && particles.layout == GridLayout.COLUMN_MAJOR;
+        for ( int link = 0 ; link < LINK_COUNT ; link++ ) {
+            linkOffset[link] = LINK_DX[link] * particles.rows + LINK_DY[link];
+        }
+        if ( arrayBacked ) 
+        {
+            ownerLinks = new byte[ particles.count ];
+            springFactor = new double[ particles.count * LINK_COUNT ];
+            for ( int x = 0 ; x < particles.columns ; x++ ) 
+            {
+                for ( int y = 0 ; y < particles.rows ; y++ ) 
+                {
+                    int mask = 0;
+                    for ( int link = 0 ; link < LINK_COUNT ; link++ ) 
+                    {
+                        if ( isInsideGrid( x - LINK_DX[link] , y - LINK_DY[link] ) ) {
+                            mask |= 1 << link;
+                        }
+                    }
+                    ownerLinks[ particles.index( x , y ) ] = (byte) mask;
+                }
+            }
+        } else {
+            ownerLinks = null;
+            springFactor = null;
+        }
+
+        links = particles.storageType.createByteColumn( particles.count );
+        nextLinks = particles.storageType.createByteColumn( particles.count );
+    }
+
+    private boolean isInsideGrid(int x,int y) {
+        return x >= 0 && y >= 0 && x < particles.columns && y < particles.rows;
+    }
+
+    public boolean isIntact(int particle,int link) {
+        return ( links.get( particle ) & (1 << link) ) != 0;
+    }
+
+    /**
+     * Returns the particle at the other end of a link.
+     */
+    public int getNeighbour(int particle,int link) {
+        return particles.index( particles.column( particle ) + LINK_DX[link] , particles.row( particle ) + LINK_DY[link] );
+    }
+
+    public static byte getType(int link) {
+        return LINK_TYPE[link];
+    }
+
+    public static int getLinkDX(int link) {
+        return LINK_DX[link];
+    }
+
+    public static int getLinkDY(int link) {
+        return LINK_DY[link];
+    }
+
+    /**
+     * Returns the link pointing to the neighbour at a given grid offset.
+     *
+     * @return link or <code>-1</code> if there is no link with this offset
+     */
+    public static int findLink(int dx,int dy) 
+    {
+        for ( int link = 0 ; link < LINK_COUNT ; link++ ) 
+        {
+            if ( LINK_DX[link] == dx && LINK_DY[link] == dy ) {
+                return link;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return bit mask of intact links, see {@link #isIntact(int, int)}
+     */
+    public byte getLinkMask(int particle) {
+        return links.get( particle );
+    }
+
+    public int getSpringCount() {
+        return springCount.get();
+    }
+
+    /**
+     * Clears the link bits of all springs owned by particles <code>start...end-1</code> 
+     * that are longer than the max. spring length.
+     * 
+     * <p>Only writes to the link masks of particles inside the range.</p>
+     */
+    public void tearSprings(int start,int end,double maxLengthSquared) 
+    {
+        final int torn;
+        if ( arrayBacked ) 
+        {
+            final ParticleStore p = particles;
+            if ( p.singlePrecision ) 
+            {
+                torn = tearSprings( start , end , maxLengthSquared , ((ByteColumn.Heap) links).array() , 
+                        ((DoubleColumn.FloatHeap) p.posX).array() , ((DoubleColumn.FloatHeap) p.posY).array() , ((DoubleColumn.FloatHeap) p.posZ).array() , 
+                        ((ByteColumn.Heap) p.flags).array() );
+            } else {
+                torn = tearSprings( start , end , maxLengthSquared , ((ByteColumn.Heap) links).array() , 
+                        ((DoubleColumn.Heap) p.posX).array() , ((DoubleColumn.Heap) p.posY).array() , ((DoubleColumn.Heap) p.posZ).array() , 
+                        ((ByteColumn.Heap) p.flags).array() );
+            }
+        } else {
+            torn = tearSpringsLookup( start , end , maxLengthSquared );
+        }
+        if ( torn != 0 ) {
+            springCount.addAndGet( -torn );
+        }
+    }
+
+    // the link bit guarantees that the neighbour is inside the grid
+    private int tearSprings(int start,int end,double maxLengthSquared,byte[] links,
+            double[] posX,double[] posY,double[] posZ,byte[] flags) 
+    {
+        int torn = 0;
+        for ( int m1 = start ; m1 < end ; m1++ ) 
+        {
+            final int mask = links[m1];
+            if ( mask == 0 ) {
+                continue;
+            }
+            int newMask = mask;
+            for ( int link = 0 ; link < LINK_COUNT ; link++ ) 
+            {
+                if ( ( mask & (1 << link) ) == 0 ) {
+                    continue;
+                }
+                final int m2 = m1 + linkOffset[link];
+                final double dx = posX[m1] - posX[m2];
+                final double dy = posY[m1] - posY[m2];
+                final double dz = posZ[m1] - posZ[m2];
+                if ( dx*dx + dy*dy + dz*dz > maxLengthSquared && ( ( flags[m1] | flags[m2] ) & Mass.FLAG_SELECTED ) == 0 ) {
+                    newMask &= ~(1 << link);
+                }
+            }
+            if ( newMask != mask ) 
+            {
+                links[m1] = (byte) newMask;
+                torn += Integer.bitCount( mask & ~newMask );
+            }
+        }
+        return torn;
+    }
+
+    // single-precision counterpart of the array loop above
+    private int tearSprings(int start,int end,double maxLengthSquared,byte[] links,
+            float[] posX,float[] posY,float[] posZ,byte[] flags) 
+    {
+        int torn = 0;
+        for ( int m1 = start ; m1 < end ; m1++ ) 
+        {
+            final int mask = links[m1];
+            if ( mask == 0 ) {
+                continue;
+            }
+            int newMask = mask;
+            for ( int link = 0 ; link < LINK_COUNT ; link++ ) 
+            {
+                if ( ( mask & (1 << link) ) == 0 ) {
+                    continue;
+                }
+                final int m2 = m1 + linkOffset[link];
+                final double dx = (double) posX[m1] - posX[m2];
+                final double dy = (double) posY[m1] - posY[m2];
+                final double dz = (double) posZ[m1] - posZ[m2];
+                if ( dx*dx + dy*dy + dz*dz > maxLengthSquared && ( ( flags[m1] | flags[m2] ) & Mass.FLAG_SELECTED ) == 0 ) {
+                    newMask &= ~(1 << link);
+                }
+            }
+            if ( newMask != mask ) 
+            {
+                links[m1] = (byte) newMask;
+                torn += Integer.bitCount( mask & ~newMask );
+            }
+        }
+        return torn;
+    }
+
+    private int tearSpringsLookup(int start,int end,double maxLengthSquared) 
+    {
+        final ParticleStore p = particles;
+        int torn = 0;
+        for ( int m1 = start ; m1 < end ; m1++ ) 
+        {
+            final int mask = links.get( m1 );
+            if ( mask == 0 ) {
+                continue;
+            }
+            final int x = p.column( m1 );
+            final int y = p.row( m1 );
+            int newMask = mask;
+            for ( int link = 0 ; link < LINK_COUNT ; link++ ) 
+            {
+                if ( ( mask & (1 << link) ) == 0 ) {
+                    continue;
+                }
+                final int m2 = p.index( x + LINK_DX[link] , y + LINK_DY[link] );
+                final double dx = p.posX.get( m1 ) - p.posX.get( m2 );
+                final double dy = p.posY.get( m1 ) - p.posY.get( m2 );
+                final double dz = p.posZ.get( m1 ) - p.posZ.get( m2 );
+                if ( dx*dx + dy*dy + dz*dz > maxLengthSquared && 
+                     !( p.hasFlags( m1 , Mass.FLAG_SELECTED ) || p.hasFlags( m2 , Mass.FLAG_SELECTED ) ) ) 
+                {
+                    newMask &= ~(1 << link);
+                }
+            }
+            if ( newMask != mask ) 
+            {
+                links.set( m1 , (byte) newMask );
+                torn += Integer.bitCount( mask & ~newMask );
+            }
+        }
+        return torn;
+    }
+
+    /**
+     * Calculates the sum of all spring forces acting on particles <code>start...end-1</code>
+     * and stores it in the particle's force.
+     */
+    public void gatherForces(int start,int end) 
+    {
+        gather( start , end , 0 , null );
+    }
+
+    /**
+     * Fused {@link #tearSprings(int, int, double)} and {@link #gatherForces(int, int)} 
+     * for particles <code>start...end-1</code>, checking each spring for tearing with 
+     * the length that is computed for its force anyway.
+     * 
+     * <p>Only reads the current link masks and writes the updated masks of the particles in the range
+     * to a second buffer that becomes current with {@link #swapLinkBuffers()}, so ranges can be 
+     * processed concurrently. Both ends of a spring come to the same conclusion about whether it tears.</p>
+     * 
+     * @param maxLengthSquared squared max. spring length, springs never tear if this is &lt;= 0
+     */
+    public void tearAndGatherForces(int start,int end,double maxLengthSquared) 
+    {
+        gather( start , end , maxLengthSquared , nextLinks );
+    }
+
+    // writes the link masks of the range to newLinks unless it is null 
+    private void gather(int start,int end,double maxLengthSquared,ByteColumn newLinks) 
+    {
+        if ( ! arrayBacked ) 
+        {
+            final int torn = gatherLookup( start , end , maxLengthSquared , newLinks );
+            if ( torn != 0 ) {
+                springCount.addAndGet( -torn );
+            }
+            return;
+        }
+
+        /*
+         * Owners of the springs a particle is the second mass of are up to two columns 
+         * to the left, two rows above and one row below. Particles in the first two columns 
+         * and in the first two and the last row of every other column need to check whether 
+         * the owner is inside the grid, all others can use the link offsets right away.
+         */
+        final int rows = particles.rows;
+        int torn = 0;
+        int mass = start;
+        while ( mass < end ) 
+        {
+            final int columnStart = ( mass / rows ) * rows;
+            final int columnEnd = Math.min( end , columnStart + rows );
+            final boolean borderColumn = columnStart < 2 * rows;
+            final int interiorStart = borderColumn ? columnEnd : Math.min( columnEnd , Math.max( mass , columnStart + 2 ) );
+            final int interiorEnd = Math.max( interiorStart , Math.min( columnEnd , columnStart + rows - 1 ) );
+
+            torn += gather( mass , interiorStart , start , true , maxLengthSquared , newLinks );
+            torn += gather( interiorStart , interiorEnd , start , false , maxLengthSquared , newLinks );
+            torn += gather( interiorEnd , columnEnd , start , true , maxLengthSquared , newLinks );
+            mass = columnEnd;
+        }
+        if ( torn != 0 ) {
+            springCount.addAndGet( -torn );
+        }
+    }
+
+    private int gather(int start,int end,int rangeStart,boolean border,double maxLengthSquared,ByteColumn newLinks) 
+    {
+        if ( start == end ) {
+            return 0;
+        }
+        final ParticleStore p = particles;
+        final byte[] currentLinks = ((ByteColumn.Heap) links).array();
+        final byte[] updatedLinks = newLinks != null ? ((ByteColumn.Heap) newLinks).array() : null;
+        final double[] inverseMass = ((DoubleColumn.Heap) p.inverseMass).array();
+        final byte[] flags = ((ByteColumn.Heap) p.flags).array();
+        if ( p.singlePrecision ) 
+        {
+            return gather( start , end , rangeStart , border , maxLengthSquared , currentLinks , updatedLinks , 
+                    ((DoubleColumn.FloatHeap) p.posX).array() , ((DoubleColumn.FloatHeap) p.posY).array() , ((DoubleColumn.FloatHeap) p.posZ).array() , 
+                    inverseMass , 
+                    ((DoubleColumn.FloatHeap) p.forceX).array() , ((DoubleColumn.FloatHeap) p.forceY).array() , ((DoubleColumn.FloatHeap) p.forceZ).array() , 
+                    flags );
+        }
+        return gather( start , end , rangeStart , border , maxLengthSquared , currentLinks , updatedLinks , 
+                ((DoubleColumn.Heap) p.posX).array() , ((DoubleColumn.Heap) p.posY).array() , ((DoubleColumn.Heap) p.posZ).array() , 
+                inverseMass , 
+                ((DoubleColumn.Heap) p.forceX).array() , ((DoubleColumn.Heap) p.forceY).array() , ((DoubleColumn.Heap) p.forceZ).array() , 
+                flags );
+    }
+
+    /*
+     * Computes each spring once for its owner and stores the owner's factor in springFactor, 
+     * the other end reuses it if the owner belongs to the range processed by the same call 
+     * (starting at rangeStart). Absent and torn springs get a factor of zero.
+     */
+    private int gather(int start,int end,int rangeStart,boolean border,double maxLengthSquared,byte[] links,byte[] newLinks,
+            double[] posX,double[] posY,double[] posZ,double[] inverseMass,
+            double[] forceX,double[] forceY,double[] forceZ,byte[] flags) 
+    {
+        final boolean tearSprings = maxLengthSquared > 0;
+        final byte[] ownerLinks = this.ownerLinks;
+        final double[] springFactor = this.springFactor;
+        int torn = 0;
+        for ( int mass = start ; mass < end ; mass++ ) 
+        {
+            final int mask = links[mass];
+            int newMask = mask;
+
+            double sumX = 0;
+            double sumY = 0;
+            double sumZ = 0;
+            for ( int i = 0 ; i < GATHER_LINK.length ; i++ ) 
+            {
+                final int link = GATHER_LINK[i];
+                if ( GATHER_BACKWARD[i] ) 
+                {
+                    // loop-invariant, the JIT compiler unswitches the loop
+                    if ( border && ( ownerLinks[mass] & (1 << link) ) == 0 ) {
+                        continue;
+                    }
+                    final int m1 = mass - linkOffset[link];
+                    if ( ( links[m1] & (1 << link) ) == 0 ) {
+                        continue;
+                    }
+                    final double dx = posX[m1] - posX[mass];
+                    final double dy = posY[m1] - posY[mass];
+                    final double dz = posZ[m1] - posZ[mass];
+                    final double factor;
+                    if ( m1 >= rangeStart ) {
+                        factor = springFactor[ m1 * LINK_COUNT + link ];
+                    } 
+                    else 
+                    {
+                        final double lengthSquared = dx*dx + dy*dy + dz*dz;
+                        if ( tearSprings && lengthSquared > maxLengthSquared && ( ( flags[m1] | flags[mass] ) & Mass.FLAG_SELECTED ) == 0 ) {
+                            continue;
+                        }
+                        final double im1 = inverseMass[m1];
+                        final double im2 = inverseMass[mass];
+                        factor = ( im1 / (im1 + im2) ) * coefficient * ( restLength[link] - Math.sqrt( lengthSquared ) );
+                    }
+                    sumX -= dx * factor;
+                    sumY -= dy * factor;
+                    sumZ -= dz * factor;
+                } 
+                else 
+                {
+                    if ( ( mask & (1 << link) ) == 0 ) {
+                        continue;
+                    }
+                    final int m2 = mass + linkOffset[link];
+                    final double dx = posX[mass] - posX[m2];
+                    final double dy = posY[mass] - posY[m2];
+                    final double dz = posZ[mass] - posZ[m2];
+                    final double lengthSquared = dx*dx + dy*dy + dz*dz;
+                    if ( tearSprings && lengthSquared > maxLengthSquared && ( ( flags[mass] | flags[m2] ) & Mass.FLAG_SELECTED ) == 0 ) 
+                    {
+                        newMask &= ~(1 << link);
+                        torn++;
+                        springFactor[ mass * LINK_COUNT + link ] = 0;
+                        continue;
+                    }
+                    final double im1 = inverseMass[mass];
+                    final double im2 = inverseMass[m2];
+                    final double factor = ( im1 / (im1 + im2) ) * coefficient * ( restLength[link] - Math.sqrt( lengthSquared ) );
+                    springFactor[ mass * LINK_COUNT + link ] = factor;
+                    sumX += dx * factor;
+                    sumY += dy * factor;
+                    sumZ += dz * factor;
+                }
+            }
+            if ( newLinks != null ) {
+                newLinks[mass] = (byte) newMask;
+            }
+            forceX[mass] = sumX;
+            forceY[mass] = sumY;
+            forceZ[mass] = sumZ;
+        }
+        return torn;
+    }
+
+    // single-precision counterpart of the array loop above
+    private int gather(int start,int end,int rangeStart,boolean border,double maxLengthSquared,byte[] links,byte[] newLinks,
+            float[] posX,float[] posY,float[] posZ,double[] inverseMass,
+            float[] forceX,float[] forceY,float[] forceZ,byte[] flags) 
+    {
+        final boolean tearSprings = maxLengthSquared > 0;
+        final byte[] ownerLinks = this.ownerLinks;
+        final double[] springFactor = this.springFactor;
+        int torn = 0;
+        for ( int mass = start ; mass < end ; mass++ ) 
+        {
+            final int mask = links[mass];
+            int newMask = mask;
+
+            double sumX = 0;
+            double sumY = 0;
+            double sumZ = 0;
+            for ( int i = 0 ; i < GATHER_LINK.length ; i++ ) 
+            {
+                final int link = GATHER_LINK[i];
+                if ( GATHER_BACKWARD[i] ) 
+                {
+                    // loop-invariant, the JIT compiler unswitches the loop
+                    if ( border && ( ownerLinks[mass] & (1 << link) ) == 0 ) {
+                        continue;
+                    }
+                    final int m1 = mass - linkOffset[link];
+                    if ( ( links[m1] & (1 << link) ) == 0 ) {
+                        continue;
+                    }
+                    final double dx = (double) posX[m1] - posX[mass];
+                    final double dy = (double) posY[m1] - posY[mass];
+                    final double dz = (double) posZ[m1] - posZ[mass];
+                    final double factor;
+                    if ( m1 >= rangeStart ) {
+                        factor = springFactor[ m1 * LINK_COUNT + link ];
+                    } 
+                    else 
+                    {
+                        final double lengthSquared = dx*dx + dy*dy + dz*dz;
+                        if ( tearSprings && lengthSquared > maxLengthSquared && ( ( flags[m1] | flags[mass] ) & Mass.FLAG_SELECTED ) == 0 ) {
+                            continue;
+                        }
+                        final double im1 = inverseMass[m1];
+                        final double im2 = inverseMass[mass];
+                        factor = ( im1 / (im1 + im2) ) * coefficient * ( restLength[link] - Math.sqrt( lengthSquared ) );
+                    }
+                    sumX -= dx * factor;
+                    sumY -= dy * factor;
+                    sumZ -= dz * factor;
+                } 
+                else 
+                {
+                    if ( ( mask & (1 << link) ) == 0 ) {
+                        continue;
+                    }
+                    final int m2 = mass + linkOffset[link];
+                    final double dx = (double) posX[mass] - posX[m2];
+                    final double dy = (double) posY[mass] - posY[m2];
+                    final double dz = (double) posZ[mass] - posZ[m2];
+                    final double lengthSquared = dx*dx + dy*dy + dz*dz;
+                    if ( tearSprings && lengthSquared > maxLengthSquared && ( ( flags[mass] | flags[m2] ) & Mass.FLAG_SELECTED ) == 0 ) 
+                    {
+                        newMask &= ~(1 << link);
+                        torn++;
+                        springFactor[ mass * LINK_COUNT + link ] = 0;
+                        continue;
+                    }
+                    final double im1 = inverseMass[mass];
+                    final double im2 = inverseMass[m2];
+                    final double factor = ( im1 / (im1 + im2) ) * coefficient * ( restLength[link] - Math.sqrt( lengthSquared ) );
+                    springFactor[ mass * LINK_COUNT + link ] = factor;
+                    sumX += dx * factor;
+                    sumY += dy * factor;
+                    sumZ += dz * factor;
+                }
+            }
+            if ( newLinks != null ) {
+                newLinks[mass] = (byte) newMask;
+            }
+            forceX[mass] = (float) sumX;
+            forceY[mass] = (float) sumY;
+            forceZ[mass] = (float) sumZ;
+        }
+        return torn;
+    }
+
+    private int gatherLookup(int start,int end,double maxLengthSquared,ByteColumn newLinks) 
+    {
+        final ParticleStore p = particles;
+        final boolean tearSprings = maxLengthSquared > 0;
+        int torn = 0;
+        for ( int mass = start ; mass < end ; mass++ ) 
+        {
+            final int x = p.column( mass );
+            final int y = p.row( mass );
+            int newMask = links.get( mass );
+
+            double sumX = 0;
+            double sumY = 0;
+            double sumZ = 0;
+            for ( int i = 0 ; i < GATHER_LINK.length ; i++ ) 
+            {
+                final int link = GATHER_LINK[i];
+                final int m1;
+                final int m2;
+                if ( GATHER_BACKWARD[i] ) 
+                {
+                    final int ownerX = x - LINK_DX[link];
+                    final int ownerY = y - LINK_DY[link];
+                    if ( ! isInsideGrid( ownerX , ownerY ) ) {
+                        continue;
+                    }
+                    m1 = p.index( ownerX , ownerY );
+                    if ( ( links.get( m1 ) & (1 << link) ) == 0 ) {
+                        continue;
+                    }
+                    m2 = mass;
+                } 
+                else 
+                {
+                    if ( ( links.get( mass ) & (1 << link) ) == 0 ) {
+                        continue;
+                    }
+                    m1 = mass;
+                    m2 = p.index( x + LINK_DX[link] , y + LINK_DY[link] );
+                }
+
+                final double dx = p.posX.get( m1 ) - p.posX.get( m2 );
+                final double dy = p.posY.get( m1 ) - p.posY.get( m2 );
+                final double dz = p.posZ.get( m1 ) - p.posZ.get( m2 );
+                final double lengthSquared = dx*dx + dy*dy + dz*dz;
+
+                if ( tearSprings && lengthSquared > maxLengthSquared && 
+                     !( p.hasFlags( m1 , Mass.FLAG_SELECTED ) || p.hasFlags( m2 , Mass.FLAG_SELECTED ) ) ) 
+                {
+                    if ( m1 == mass ) 
+                    {
+                        newMask &= ~(1 << link);
+                        torn++;
+                    }
+                    continue;
+                }
+
+                final double im1 = p.inverseMass.get( m1 );
+                final double im2 = p.inverseMass.get( m2 );
+                final double difference = restLength[link] - Math.sqrt( lengthSquared );
+                final double factor = ( im1 / (im1 + im2) ) * coefficient * difference;
+                if ( m1 == mass ) 
+                {
+                    sumX += dx * factor;
+                    sumY += dy * factor;
+                    sumZ += dz * factor;
+                } else {
+                    sumX -= dx * factor;
+                    sumY -= dy * factor;
+                    sumZ -= dz * factor;
+                }
+            }
+            if ( newLinks != null ) {
+                newLinks.set( mass , (byte) newMask );
+            }
+            p.forceX.set( mass , sumX );
+            p.forceY.set( mass , sumY );
+            p.forceZ.set( mass , sumZ );
+        }
+        return torn;
+    }
+
+    /**
+     * Makes the link masks written by {@link #tearAndGatherForces(int, int, double)} current,
+     * must not be called while other threads access this stencil.
+     */
+    public void swapLinkBuffers() 
+    {
+        final ByteColumn tmp = links;
+        links = nextLinks;
+        nextLinks = tmp;
+    }
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * A fixed-size column of <code>int</code> values.
+ * 
+ * @see StorageType
+ */
+public interface IntColumn 
+{
+    public int size();
+
+    public int get(int index);
+
+    public void set(int index,int value);
+
+    /**
+     * Copies values <code>0...length-1</code> from another column.
+     */
+    public void copyFrom(IntColumn source,int length);
+
+    /**
+     * Column backed by a <code>int[]</code> array.
+     */
+    public static final class Heap implements IntColumn 
+    {
+        private final int[] values;
+
+        public Heap(int size) {
+            this.values = new int[size];
+        }
+
+        /**
+         * Returns the backing array, for use by {@link ArrayKernels}.
+         */
+        public int[] array() {
+            return values;
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+
+        @Override
+        public int get(int index) {
+            return values[index];
+        }
+
+        @Override
+        public void set(int index, int value) {
+            values[index] = value;
+        }
+
+        @Override
+        public void copyFrom(IntColumn source, int length) 
+        {
+            if ( source instanceof Heap ) {
+                System.arraycopy( ((Heap) source).values , 0 , values , 0 , length );
+            } else {
+                for ( int i = 0 ; i < length ; i++ ) {
+                    values[i] = source.get(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Column backed by native memory outside of the Java heap.
+     */
+    public static final class Direct implements IntColumn 
+    {
+        private final IntBuffer values;
+
+        public Direct(int size) {
+            this.values = ByteBuffer.allocateDirect( size*4 ).order( ByteOrder.nativeOrder() ).asIntBuffer();
+        }
+
+        @Override
+        public int size() {
+            return values.capacity();
+        }
+
+        @Override
+        public int get(int index) {
+            return values.get(index);
+        }
+
+        @Override
+        public void set(int index, int value) {
+            values.put(index,value);
+        }
+
+        @Override
+        public void copyFrom(IntColumn source, int length) 
+        {
+            if ( source instanceof Direct ) 
+            {
+                final IntBuffer src = ((Direct) source).values.duplicate();
+                src.limit( length );
+                final IntBuffer dst = values.duplicate();
+                dst.put( src );
+            } else {
+                for ( int i = 0 ; i < length ; i++ ) {
+                    values.put( i , source.get(i) );
+                }
+            }
+        }
+    }
+}
@@ -38,6 +38,8 @@ public class Main extends Frame {
 	private SimulationParameters parameters;
 
 	private final IRenderPanel renderPanel;
+	
+	private volatile ControlPanel controlPanel;
 
 	public static void main(String[] args) 
 	{
@@ -60,11 +62,12 @@ public class Main extends Frame {
 
 		renderPanel.setPreferredSize( new Dimension(800,400 ) );
 		
-		final JFrame controlFrame = new ControlPanel() {
+		controlPanel = new ControlPanel() {
 			protected void applyChanges(SimulationParameters newParameters) {
 				setup( newParameters , true );
 			}
-		}.createFrame();
+		};
+		final JFrame controlFrame = controlPanel.createFrame();
 		
 		final WindowAdapter closeListener = new WindowAdapter() 
 		{
@@ -122,6 +125,14 @@ public class Main extends Frame {
                 {
                     renderPanel.modelChanged();
                 }
+                
+                @Override
+                protected void partitioningTuned(SimulationParameters tunedParameters) 
+                {
+                    if ( controlPanel != null ) {
+                        controlPanel.partitioningTuned( tunedParameters );
+                    }
+                }
             };
 			
 			if ( renderPanel != null ) {
@@ -133,55 +144,64 @@ public class Main extends Frame {
 		}
 	}
 
+	/**
+	 * Picks and moves particles, all changes to the simulation are queued 
+	 * to the simulation thread.
+	 * 
+	 * @see Simulator#queueEdit(Runnable)
+	 */
 	protected final class MyMouseAdapter extends MouseAdapter 
 	{
+		// only accessed by the simulation thread
 		private Mass selected;
 
-		private Mass getNearestMass(int x,int y) 
+		private Mass getNearestMass(Simulator simulator,Vector4 mousePointer) 
 		{
-			synchronized(SIMULATOR_LOCK) 
-			{
-				final SimulationParameters params = simulator.getSimulationParameters();
-				
-				final double gridWidth= params.getXResolution() / params.getGridColumnCount();
-				final double gridHeight = params.getYResolution() / params.getGridRowCount();
-				final double pickDepth = Math.abs( params.getMouseDragZDepth() + 1 );
-				
-				final double radiusSquared = gridWidth*gridWidth + gridHeight*gridHeight + pickDepth*pickDepth;
-				
-				final Vector4 mousePointer = renderPanel.viewToModel( x, y );
-				return simulator.getSpringMassSystem().getNearestMass( mousePointer , radiusSquared );
-			}
+			final SimulationParameters params = simulator.getSimulationParameters();
+			
+			final double gridWidth= params.getXResolution() / params.getGridColumnCount();
+			final double gridHeight = params.getYResolution() / params.getGridRowCount();
+			final double pickDepth = Math.abs( params.getMouseDragZDepth() + 1 );
+			
+			final double radiusSquared = gridWidth*gridWidth + gridHeight*gridHeight + pickDepth*pickDepth;
+			
+			return simulator.getSpringMassSystem().getNearestMass( mousePointer , radiusSquared );
 		}
 		
 		public void mousePressed(java.awt.event.MouseEvent e) 
 		{
+			final int button = e.getButton();
+			if ( button != MouseEvent.BUTTON1 && button != MouseEvent.BUTTON3 ) {
+				return;
+			}
+			
+			final Vector4 mousePointer = renderPanel.viewToModel( e.getX() , e.getY() );
 			synchronized(SIMULATOR_LOCK) 
 			{
-				final int button = e.getButton();
-
-				if ( button == MouseEvent.BUTTON1 || button == MouseEvent.BUTTON3 ) 
-				{ 
-					final Mass nearest = getNearestMass( e.getX() , e.getY() );
-					if ( button == MouseEvent.BUTTON1 ) // left click 
-					{
-						setSelected( nearest );
-					} 
-					else  // right click
+				final Simulator simulator = Main.this.simulator;
+				simulator.queueEdit( new Runnable() 
+				{
+					@Override
+					public void run() 
 					{
-						if ( nearest != null ) 
+						final Mass nearest = getNearestMass( simulator , mousePointer );
+						if ( button == MouseEvent.BUTTON1 ) // left click 
+						{
+							setSelected( nearest );
+						} 
+						else if ( nearest != null ) // right click
 						{
 							nearest.setFixed( ! nearest.isFixed() );
-		                    renderPanel.modelChanged();							
+							renderPanel.modelChanged();							
 						}
 					}
-				} 
+				});
 			}
 		}
 
 		private void setSelected(Mass m) 
 		{
-			if ( selected != null && selected != m ) 
+			if ( selected != null && ! selected.equals( m ) ) 
 			{
 				selected.setSelected(false);
 			}
@@ -196,21 +216,37 @@ public class Main extends Frame {
 		{
 			if ( e.getButton() == MouseEvent.BUTTON1 ) 
 			{ 
-				setSelected(null);
+				synchronized(SIMULATOR_LOCK) 
+				{
+					simulator.queueEdit( new Runnable() 
+					{
+						@Override
+						public void run() {
+							setSelected(null);
+						}
+					});
+				}
 			}
 		}
 
 		public void mouseDragged(MouseEvent e) 
 		{
-			if ( selected != null ) 
+			final Vector4 newPos = renderPanel.viewToModel( e.getX() , e.getY() );
+			synchronized(SIMULATOR_LOCK) 
 			{
-				synchronized(SIMULATOR_LOCK) 
+				newPos.z=parameters.getMouseDragZDepth();
+				simulator.queueEdit( new Runnable() 
 				{
-					final Vector4 newPos = renderPanel.viewToModel( e.getX() , e.getY() );
-					newPos.z=parameters.getMouseDragZDepth();
-					selected.setPosition( newPos );
-					renderPanel.modelChanged();					
-				}
+					@Override
+					public void run() 
+					{
+						if ( selected != null ) 
+						{
+							selected.setPosition( newPos );
+							renderPanel.modelChanged();
+						}
+					}
+				});
 			}
 		}
 	};	
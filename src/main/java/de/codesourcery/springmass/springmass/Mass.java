@@ -15,101 +15,92 @@
  */
 package de.codesourcery.springmass.springmass;
 
-import java.awt.Color;
-import java.util.ArrayList;
-import java.util.List;
-
 import de.codesourcery.springmass.math.Vector4;
 
-public class Mass {
-	
-	public final Vector4 currentPosition=new Vector4();
-	public Vector4 previousPosition=new Vector4();
-	
-	public final double mass;
-	public final Color color;
-	
-	public final List<Spring> springs = new ArrayList<>();
+/**
+ * Lightweight handle to a single particle stored in a {@link ParticleStore}.
+ *
+ * <p>Handles carry no state of their own and are created on demand, two handles
+ * referring to the same particle are equal.</p>
+ */
+public final class Mass {
 	
-	private byte flags;
+	public final ParticleStore store;
+	public final int index;
 	
 	public static final byte FLAG_FIXED = 1<<0;
 	public static final byte FLAG_SELECTED = 1<<1;
 	
+	public Mass(ParticleStore store,int index) 
+	{
+		if (store == null) {
+			throw new IllegalArgumentException("store must not be null");
+		}
+		if ( index < 0 || index >= store.count ) {
+			throw new IllegalArgumentException("Index out of range: "+index);
+		}
+		this.store = store;
+		this.index = index;
+	}
+	
 	@Override
 	public String toString() {
-		return "Mass( "+currentPosition+" )";
+		return "Mass( "+getPosition()+" )";
 	}
 	
 	public void setPosition(Vector4 p) {
-	    this.currentPosition.set(p);
-	    this.previousPosition.set(p);
+	    store.setPosition( index , p );
 	}
 	
-	public double distanceTo(Mass other) {
-		return currentPosition.distanceTo( other.currentPosition );
+	public Vector4 getPosition() {
+		return store.getPosition( index , new Vector4() );
 	}
 	
-	public Mass createCopyWithoutSprings() 
-	{
-	    Mass result = new Mass(color,currentPosition,mass);
-	    result.flags = flags;
-	    result.previousPosition = new Vector4(previousPosition);
-	    return result;
+	public double distanceTo(Mass other) {
+		return getPosition().distanceTo( other.getPosition() );
 	}
 	
-	public void setFixed(boolean yesNo) 
-	{
-	    if ( yesNo ) {
-	        this.flags |= FLAG_FIXED;
-	    } else {
-	        this.flags &= ~FLAG_FIXED;
-	    }
+	public double getMass() {
+		return store.getMass( index );
 	}
 	
-	public void addSpring(Spring s) 
+	public void setFixed(boolean yesNo) 
 	{
-		s.m1.springs.add( s );
-		s.m2.springs.add( s );
+	    store.setFlags( index , FLAG_FIXED , yesNo );
 	}
 	
 	public boolean isFixed() {
-		return (flags & FLAG_FIXED) != 0;
+		return store.hasFlags( index , FLAG_FIXED );
 	}
 	
 	public void setSelected(boolean yesNo) {
-        if ( yesNo ) {
-            this.flags |= FLAG_SELECTED;
-        } else {
-            this.flags &= ~FLAG_SELECTED;
-        }	    
+	    store.setFlags( index , FLAG_SELECTED , yesNo );
 	}	
 	
 	public boolean isSelected() {
-        return (flags & FLAG_SELECTED) != 0;		
+        return store.hasFlags( index , FLAG_SELECTED );
 	}	
 	
 	public boolean hasFlags(int bitMask) {
-	    return (flags & bitMask) != 0;
+	    return store.hasFlags( index , bitMask );
+	}
+	
+	public double squaredDistanceTo(Vector4 other) {
+		return store.squaredDistanceTo( index , other );
 	}
 	
-	public Mass(Color color,Vector4 position,double mass) {
-		if (position == null) {
-			throw new IllegalArgumentException("position must not be null");
+	@Override
+	public boolean equals(Object obj) 
+	{
+		if ( obj instanceof Mass ) {
+			final Mass that = (Mass) obj;
+			return this.store == that.store && this.index == that.index;
 		}
-		this.color = color;
-		this.mass = mass;
-		setPosition(position);
+		return false;
 	}
-
-	public double squaredDistanceTo(Vector4 other) {
-		return currentPosition.squaredDistanceTo( other );
+	
+	@Override
+	public int hashCode() {
+		return index;
 	}
-
-    public void copyPositionAndFlagsFrom(Mass mass2)
-    {
-        this.currentPosition.set( mass2.currentPosition );
-        this.previousPosition.set( mass2.previousPosition );
-        this.flags = mass2.flags;
-    }
 }
\ No newline at end of file
@@ -0,0 +1,283 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.Arrays;
+
+import de.codesourcery.springmass.math.Vector4;
+
+/**
+ * Structure-of-arrays storage for all particles of a {@link SpringMassSystem}.
+ *
+ * <p>Particle data is kept in parallel primitive columns so the solver streams 
+ * through contiguous memory instead of dereferencing one heap object per particle. 
+ * Depending on the {@link StorageType}, columns live on the Java heap or in native memory.</p>
+ * 
+ * <p>The {@link GridLayout} determines which particle index a grid position maps to, 
+ * always use {@link #index(int, int)}, {@link #column(int)} and {@link #row(int)} 
+ * to convert between the two.</p>
+ */
+public final class ParticleStore
+{
+    public final int columns;
+    public final int rows;
+    public final int count;
+
+    public final StorageType storageType;
+    public final boolean singlePrecision;
+    public final GridLayout layout;
+
+    // particle index by x*rows+y, null for GridLayout.COLUMN_MAJOR
+    private final int[] indexByPosition;
+    // grid position by particle index
+    private final int[] columnByIndex;
+    private final int[] rowByIndex;
+
+    // not final, see swapPositionBuffers()
+    public DoubleColumn posX;
+    public DoubleColumn posY;
+    public DoubleColumn posZ;
+
+    public DoubleColumn prevX;
+    public DoubleColumn prevY;
+    public DoubleColumn prevZ;
+
+    public final DoubleColumn inverseMass;
+
+    // sum of all forces acting on a particle, written by the solver 
+    // right before integration and not part of the particle's state
+    public final DoubleColumn forceX;
+    public final DoubleColumn forceY;
+    public final DoubleColumn forceZ;
+
+    public final ByteColumn flags;
+
+    public ParticleStore(int columns,int rows)
+    {
+        this( columns , rows , StorageType.HEAP , false , GridLayout.COLUMN_MAJOR );
+    }
+
+    /**
+     * @param singlePrecision whether current and previous positions should be stored 
+     * with single precision
+     */
+    public ParticleStore(int columns,int rows,StorageType storageType,boolean singlePrecision,GridLayout layout)
+    {
+        if ( columns < 1 || rows < 1 ) {
+            throw new IllegalArgumentException("Invalid grid size: "+columns+"x"+rows);
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.count = columns*rows;
+        this.storageType = storageType;
+        this.singlePrecision = singlePrecision;
+        this.layout = layout;
+
+        columnByIndex = new int[count];
+        rowByIndex = new int[count];
+        if ( layout == GridLayout.MORTON ) 
+        {
+            indexByPosition = new int[count];
+            initMortonOrder();
+        } 
+        else 
+        {
+            indexByPosition = null;
+            for ( int i = 0 ; i < count ; i++ ) {
+                columnByIndex[i] = i / rows;
+                rowByIndex[i] = i % rows;
+            }
+        }
+
+        posX = storageType.createDoubleColumn( count , singlePrecision );
+        posY = storageType.createDoubleColumn( count , singlePrecision );
+        posZ = storageType.createDoubleColumn( count , singlePrecision );
+
+        prevX = storageType.createDoubleColumn( count , singlePrecision );
+        prevY = storageType.createDoubleColumn( count , singlePrecision );
+        prevZ = storageType.createDoubleColumn( count , singlePrecision );
+
+        inverseMass = storageType.createDoubleColumn( count );
+
+        forceX = storageType.createDoubleColumn( count , singlePrecision );
+        forceY = storageType.createDoubleColumn( count , singlePrecision );
+        forceZ = storageType.createDoubleColumn( count , singlePrecision );
+        flags = storageType.createByteColumn( count );
+    }
+
+    private void initMortonOrder() 
+    {
+        if ( columns > 32768 || rows > 32768 ) {
+            throw new IllegalArgumentException("Grid too large for Morton layout: "+columns+"x"+rows);
+        }
+        // sort grid positions by their Morton code, the (dense) rank becomes the particle index
+        final long[] keys = new long[count];
+        for ( int x = 0 ; x < columns ; x++ ) 
+        {
+            for ( int y = 0 ; y < rows ; y++ ) 
+            {
+                final int position = x*rows+y;
+                final long code = spreadBits( x ) | ( spreadBits( y ) << 1 );
+                keys[position] = ( code << 32 ) | position;
+            }
+        }
+        Arrays.sort( keys );
+        for ( int index = 0 ; index < count ; index++ ) 
+        {
+            final int position = (int) keys[index];
+            indexByPosition[position] = index;
+            columnByIndex[index] = position / rows;
+            rowByIndex[index] = position % rows;
+        }
+    }
+
+    // inserts a zero bit between each of the lower 16 bits
+    private static long spreadBits(int value) 
+    {
+        long x = value & 0xffff;
+        x = (x | (x << 8)) & 0x00ff00ff;
+        x = (x | (x << 4)) & 0x0f0f0f0f;
+        x = (x | (x << 2)) & 0x33333333;
+        x = (x | (x << 1)) & 0x55555555;
+        return x;
+    }
+
+    public int index(int x,int y) 
+    {
+        final int position = x*rows+y;
+        return indexByPosition == null ? position : indexByPosition[position];
+    }
+
+    /**
+     * Returns whether all <code>double</code> columns are backed by 
+     * <code>double[]</code> arrays (see {@link DoubleColumn.Heap#array()}).
+     */
+    public boolean isArrayBacked() {
+        return storageType == StorageType.HEAP && ! singlePrecision;
+    }
+
+    /**
+     * Returns whether positions and forces are backed by <code>float[]</code> arrays 
+     * (see {@link DoubleColumn.FloatHeap#array()}) and all other <code>double</code> 
+     * columns by <code>double[]</code> arrays.
+     */
+    public boolean isFloatArrayBacked() {
+        return storageType == StorageType.HEAP && singlePrecision;
+    }
+
+    public int column(int index) {
+        return columnByIndex[index];
+    }
+
+    public int row(int index) {
+        return rowByIndex[index];
+    }
+
+    public void init(int index,Vector4 position,double mass)
+    {
+        setPosition( index , position );
+        inverseMass.set( index , 1.0 / mass );
+        flags.set( index , (byte) 0 );
+    }
+
+    public double getMass(int index) {
+        return 1.0 / inverseMass.get( index );
+    }
+
+    public void setPosition(int index,Vector4 p)
+    {
+        posX.set( index , p.x );
+        posY.set( index , p.y );
+        posZ.set( index , p.z );
+        prevX.set( index , p.x );
+        prevY.set( index , p.y );
+        prevZ.set( index , p.z );
+    }
+
+    public Vector4 getPosition(int index,Vector4 result)
+    {
+        result.x = posX.get( index );
+        result.y = posY.get( index );
+        result.z = posZ.get( index );
+        return result;
+    }
+
+    public double squaredDistanceTo(int index,Vector4 other)
+    {
+        final double dx = posX.get( index ) - other.x;
+        final double dy = posY.get( index ) - other.y;
+        final double dz = posZ.get( index ) - other.z;
+        return dx*dx + dy*dy + dz*dz;
+    }
+
+    /**
+     * Returns a hash of all particle positions.
+     * 
+     * <p>Positions are visited in grid order, so the hash does not depend on
+     * the {@link GridLayout} or {@link StorageType}.</p>
+     */
+    public long positionHash() 
+    {
+        long hash = 0xcbf29ce484222325L;
+        for ( int x = 0 ; x < columns ; x++ ) 
+        {
+            for ( int y = 0 ; y < rows ; y++ ) 
+            {
+                final int i = index( x , y );
+                hash = ( hash ^ Double.doubleToLongBits( posX.get( i ) ) ) * 0x100000001b3L;
+                hash = ( hash ^ Double.doubleToLongBits( posY.get( i ) ) ) * 0x100000001b3L;
+                hash = ( hash ^ Double.doubleToLongBits( posZ.get( i ) ) ) * 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Exchanges the current and previous position columns.
+     * 
+     * <p>Used by solvers that write new positions into the previous position columns 
+     * so that current positions stay read-only while a step is being computed. 
+     * Must not be called while other threads access this store.</p>
+     */
+    public void swapPositionBuffers() 
+    {
+        DoubleColumn tmp = posX;
+        posX = prevX;
+        prevX = tmp;
+
+        tmp = posY;
+        posY = prevY;
+        prevY = tmp;
+
+        tmp = posZ;
+        posZ = prevZ;
+        prevZ = tmp;
+    }
+
+    public boolean hasFlags(int index,int bitMask) {
+        return (flags.get( index ) & bitMask) != 0;
+    }
+
+    public void setFlags(int index,int bitMask,boolean yesNo)
+    {
+        final byte value = flags.get( index );
+        if ( yesNo ) {
+            flags.set( index , (byte) ( value | bitMask ) );
+        } else {
+            flags.set( index , (byte) ( value & ~bitMask ) );
+        }
+    }
+}
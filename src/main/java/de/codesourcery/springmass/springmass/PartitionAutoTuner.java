@@ -0,0 +1,213 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.Arrays;
+
+/**
+ * Picks the batch size and spring batch size factor by timing simulation steps.
+ * 
+ * <p>The tuner first waits for the JIT to settle, then tries a set of batch sizes
+ * derived from the particle and thread counts, keeping the spring batch size factor fixed. Afterwards
+ * it tries a set of spring batch size factors with the fastest batch size. Each candidate 
+ * is scored by the median step time over a number of steps, ignoring the first 
+ * few steps after each switch.</p>
+ * 
+ * <p>Partitioning never changes simulation results (verified by <code>DeterminismTest</code>), 
+ * so tuning can run on a live simulation. Instances are not thread-safe and do not 
+ * allocate memory after construction.</p>
+ */
+public final class PartitionAutoTuner 
+{
+    // steps to run before the first measurement
+    public static final int DEFAULT_WARMUP_STEPS = 50;
+    public static final int DEFAULT_STEPS_PER_CANDIDATE = 20;
+
+    // steps to ignore after switching to a different candidate
+    private static final int SETTLE_STEPS = 3;
+
+    private static final int MIN_BATCH_SIZE = 16;
+    private static final int[] CHUNKS_PER_THREAD = { 1 , 2 , 4 , 8 , 16 , 32 , 64 };
+    private static final int[] SPRING_BATCH_FACTORS = { 1 , 2 , 3 , 5 , 8 , 12 , 20 };
+
+    private final int[] batchSizes;
+    private final int[] springBatchFactors;
+    private final long[] samples;
+
+    private final int warmupSteps;
+
+    private int batchSize;
+    private int springBatchFactor;
+
+    private boolean tuningSpringBatchFactor;
+    private boolean settled;
+
+    private int candidate;
+    private int stepsOnCandidate;
+    private int warmupStepsLeft;
+
+    private long bestTime = Long.MAX_VALUE;
+    private int bestCandidate;
+
+    /**
+     * 
+     * @param particleCount number of particles
+     * @param threadCount number of threads work gets distributed on
+     * @param batchSize batch size to use until tuning is done
+     * @param springBatchFactor spring batch size factor to use until tuning is done
+     * @param tuneSpringBatchFactor whether the simulation has spring phases at all 
+     * @param warmupSteps number of steps to run before the first measurement
+     * @param stepsPerCandidate number of steps to time per candidate
+     */
+    public PartitionAutoTuner(int particleCount,int threadCount,int batchSize,int springBatchFactor,boolean tuneSpringBatchFactor,int warmupSteps,int stepsPerCandidate) 
+    {
+        if ( particleCount < 1 || threadCount < 1 || batchSize < 1 || springBatchFactor < 1 || warmupSteps < 0 || stepsPerCandidate < 1 ) {
+            throw new IllegalArgumentException("Invalid auto-tuning parameters");
+        }
+        this.batchSizes = batchSizeCandidates( particleCount , threadCount , batchSize );
+        this.springBatchFactors = tuneSpringBatchFactor ? SPRING_BATCH_FACTORS : new int[0];
+        this.samples = new long[ stepsPerCandidate ];
+        this.warmupSteps = warmupSteps;
+        this.batchSize = batchSize;
+        this.springBatchFactor = springBatchFactor;
+        this.warmupStepsLeft = warmupSteps;
+        this.candidate = -1;
+        if ( warmupSteps == 0 ) {
+            nextCandidate();
+        }
+    }
+
+    private static int[] batchSizeCandidates(int particleCount,int threadCount,int initialBatchSize) 
+    {
+        final int[] tmp = new int[ CHUNKS_PER_THREAD.length+1 ];
+        int count = 0;
+        tmp[count++] = initialBatchSize;
+        for ( int chunks : CHUNKS_PER_THREAD ) 
+        {
+            final long chunkCount = (long) threadCount * chunks;
+            final int size = Math.max( MIN_BATCH_SIZE , (int) ( ( particleCount + chunkCount - 1 ) / chunkCount ) );
+            tmp[count++] = size;
+        }
+        Arrays.sort( tmp , 0 , count );
+
+        // remove duplicates
+        int unique = 0;
+        for ( int i = 0 ; i < count ; i++ ) 
+        {
+            if ( unique == 0 || tmp[unique-1] != tmp[i] ) {
+                tmp[unique++] = tmp[i];
+            }
+        }
+        return Arrays.copyOf( tmp , unique );
+    }
+
+    /**
+     * Records the duration of a simulation step and switches to the next
+     * candidate when needed. 
+     * 
+     * <p>Callers need to apply {@link #getBatchSize()} and {@link #getSpringBatchFactor()} 
+     * before running the next step.</p>
+     * 
+     * @param stepNanos duration of the step that just finished
+     * @return <code>true</code> if the partitioning changed
+     */
+    public boolean stepFinished(long stepNanos) 
+    {
+        if ( settled ) {
+            return false;
+        }
+        if ( warmupStepsLeft > 0 ) 
+        {
+            warmupStepsLeft--;
+            if ( warmupStepsLeft == 0 && candidate == -1 ) {
+                return nextCandidate();
+            }
+            return false;
+        }
+
+        samples[ stepsOnCandidate++ ] = stepNanos;
+        if ( stepsOnCandidate < samples.length ) {
+            return false;
+        }
+
+        Arrays.sort( samples );
+        final long median = samples[ samples.length/2 ];
+        if ( median < bestTime ) 
+        {
+            bestTime = median;
+            bestCandidate = candidate;
+        }
+        return nextCandidate();
+    }
+
+    private boolean nextCandidate() 
+    {
+        final int oldBatchSize = batchSize;
+        final int oldFactor = springBatchFactor;
+
+        candidate++;
+        if ( ! tuningSpringBatchFactor && candidate == batchSizes.length ) 
+        {
+            if ( candidate > 0 ) {
+                batchSize = batchSizes[ bestCandidate ];
+            }
+            tuningSpringBatchFactor = true;
+            candidate = 0;
+            bestTime = Long.MAX_VALUE;
+        }
+
+        if ( tuningSpringBatchFactor && candidate == springBatchFactors.length ) 
+        {
+            if ( candidate > 0 ) {
+                springBatchFactor = springBatchFactors[ bestCandidate ];
+            }
+            settled = true;
+        } 
+        else 
+        {
+            if ( tuningSpringBatchFactor ) {
+                springBatchFactor = springBatchFactors[ candidate ];
+            } else {
+                batchSize = batchSizes[ candidate ];
+            }
+            stepsOnCandidate = 0;
+            warmupStepsLeft = SETTLE_STEPS;
+        }
+        return batchSize != oldBatchSize || springBatchFactor != oldFactor;
+    }
+
+    /**
+     * @return whether tuning has finished, the partitioning will not change anymore
+     */
+    public boolean isSettled() {
+        return settled;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getSpringBatchFactor() {
+        return springBatchFactor;
+    }
+
+    /**
+     * @return number of steps until tuning is finished, assuming tuning has not started yet
+     */
+    public int getTuningSteps() {
+        return warmupSteps + ( batchSizes.length + springBatchFactors.length ) * ( SETTLE_STEPS + samples.length );
+    }
+}
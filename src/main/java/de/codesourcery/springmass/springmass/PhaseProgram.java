@@ -0,0 +1,54 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * A fixed sequence of data-parallel phases, each phase may only start 
+ * after the previous one has completed.
+ *
+ * @see ExecutionEngine#run(PhaseProgram)
+ */
+public interface PhaseProgram 
+{
+    /**
+     * Size of phases that need to be run by a single thread.
+     */
+    public static final int SERIAL = -1;
+
+    public int getPhaseCount();
+
+    /**
+     * Returns the number of elements processed by a phase.
+     * 
+     * <p>Invoked when the phase is about to start, so the size may depend on 
+     * the outcome of previous phases.</p>
+     * 
+     * @return number of elements or {@link #SERIAL}
+     */
+    public int getSize(int phase);
+
+    /**
+     * Returns the preferred number of elements per chunk, 
+     * only used by engines that distribute work in chunks.
+     */
+    public int getGrainSize(int phase);
+
+    /**
+     * Processes elements <code>start...end-1</code> of a phase, 
+     * serial phases are invoked once with an empty range.
+     */
+    public void run(int phase,int start,int end);
+}
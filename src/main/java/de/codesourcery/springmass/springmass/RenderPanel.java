@@ -34,13 +34,16 @@ import de.codesourcery.springmass.math.Vector4;
 
 public final class RenderPanel extends Canvas implements IRenderPanel {
 
-    private final Object SIMULATION_LOCK = new Object();
+    // written by the simulation thread and read by the rendering thread
+    private volatile SnapshotRing snapshots;
 
-    // @GuardedBy( SIMULATION_LOCK )
-    private SpringMassSystem system;
+    private volatile Simulator simulator;
 
-    // @GuardedBy( SIMULATION_LOCK )
-    private SimulationParameters parameters;
+    // only accessed by the rendering thread
+    private SnapshotRing.Consumer frames;
+    private SnapshotRing framesSource;
+
+    private volatile SimulationParameters parameters;
 
     private final Object BUFFER_LOCK = new Object();
 
@@ -216,12 +219,10 @@ public final class RenderPanel extends Canvas implements IRenderPanel {
     @Override
 	public void setSimulator(Simulator simulator) 
     {
-        synchronized (SIMULATION_LOCK) 
-        {
-            this.system = simulator.getSpringMassSystem().createCopy();
-            this.parameters = simulator.getSimulationParameters();
-            this.renderThread.parametersChanged();
-        }
+        this.parameters = simulator.getSimulationParameters();
+        this.simulator = simulator;
+        this.snapshots = simulator.getRenderSnapshots();
+        this.renderThread.parametersChanged();
     }
 
     /* (non-Javadoc)
@@ -342,19 +343,11 @@ public final class RenderPanel extends Canvas implements IRenderPanel {
     @Override
 	public void modelChanged() 
     {
-        synchronized (SIMULATION_LOCK) 
-        {                
-            this.system.updateFromOriginal();
-            if ( this.parameters.isWaitForVSync() ) 
-            {
-                try {
-                    SIMULATION_LOCK.wait();
-                } 
-                catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-        }        
+        // a running simulator publishes a snapshot after each step
+        final Simulator current = this.simulator;
+        if ( current != null && ! current.isRunning() ) {
+            current.publishSnapshotLater();
+        }
     }
 
     private boolean renderFrame(float currentFPS) 
@@ -366,19 +359,27 @@ public final class RenderPanel extends Canvas implements IRenderPanel {
                 return false;
             }
 
+            final SimulationParameters params = this.parameters;
+            final SnapshotRing ring = this.snapshots;
+            if ( ring != framesSource ) 
+            {
+                // simulator changed
+                if ( frames != null ) {
+                    frames.close();
+                }
+                frames = ring.createConsumer();
+                framesSource = ring;
+            }
+            // with VSync, only draw frames that changed
+            if ( ! frames.update() && params.isWaitForVSync() ) {
+                return false;
+            }
+
             final BufferStrategy strategy = getBufferStrategy();
             final Graphics graphics = strategy.getDrawGraphics();
             try 
             {
-                final SimulationParameters params;
-                final SpringMassSystem sys;
-                synchronized (SIMULATION_LOCK) 
-                {                
-                    params = this.parameters;
-                    sys = this.system;
-                    render( graphics , sys , params  , currentFPS );
-                    SIMULATION_LOCK.notifyAll();
-                }
+                render( graphics , frames.getFrame() , params  , currentFPS );
             } 
             finally 
             {
@@ -391,8 +392,11 @@ public final class RenderPanel extends Canvas implements IRenderPanel {
     }
     
     private final DecimalFormat FPS_FORMAT = new DecimalFormat("###0.00");
+    
+    // indexed by spring type
+    private static final Color[] SPRING_COLORS = { Color.GREEN , Color.YELLOW , Color.BLUE };
 
-    private void render(Graphics g,SpringMassSystem system,SimulationParameters parameters,float currentAvgFPS) 
+    private void render(final Graphics g,final RenderSnapshot snapshot,SimulationParameters parameters,float currentAvgFPS) 
     {
         // clear image
         g.setColor( getBackground() );
@@ -417,27 +421,21 @@ public final class RenderPanel extends Canvas implements IRenderPanel {
 
         if ( parameters.isLightSurfaces() ) 
         {
-            final int rows = parameters.getGridRowCount();
-            final int columns = parameters.getGridColumnCount();
+            final int rows = snapshot.rows;
+            final int columns = snapshot.columns;
 
             final List<Triangle> triangles = new ArrayList<>( rows*columns*2 );
             final boolean checkArea = parameters.getMaxSpringLength() > 0;
             final double maxLenSquared = parameters.getMaxSpringLength()*parameters.getMaxSpringLength();
 
-            final Mass[][] masses = system.getMassArray();
             for ( int y = 0 ; y < rows-1 ; y++) 
             {
                 for ( int x = 0 ; x < columns-1 ; x++) 
                 {
-                    Mass m0 = masses[x][y];
-                    Mass m1 = masses[x+1][y];
-                    Mass m2 = masses[x][y+1];
-                    Mass m3 = masses[x+1][y+1];
-
-                    Vector4 p0 = m0.currentPosition;
-                    Vector4 p1 = m1.currentPosition;
-                    Vector4 p2 = m2.currentPosition;
-                    Vector4 p3 = m3.currentPosition;
+                    Vector4 p0 = getPosition( snapshot , snapshot.index( x   , y   ) , new Vector4() );
+                    Vector4 p1 = getPosition( snapshot , snapshot.index( x+1 , y   ) , new Vector4() );
+                    Vector4 p2 = getPosition( snapshot , snapshot.index( x   , y+1 ) , new Vector4() );
+                    Vector4 p3 = getPosition( snapshot , snapshot.index( x+1 , y+1 ) , new Vector4() );
 
                     Triangle t1 = new Triangle(p0,p1,p2);
                     Triangle t2 = new Triangle(p1,p3,p2);							
@@ -471,13 +469,14 @@ public final class RenderPanel extends Canvas implements IRenderPanel {
 
         if ( parameters.isRenderMasses() ) 
         {
-        	for ( int y = 0 ; y < parameters.getGridRowCount() ; y++ ) 
+            final Vector4 position = new Vector4();
+        	for ( int y = 0 ; y < snapshot.rows ; y++ ) 
         	{
-            	for ( int x = 0 ; x < parameters.getGridColumnCount() ; x++ ) 
+            	for ( int x = 0 ; x < snapshot.columns ; x++ ) 
             	{
-            		final Mass m = system.massArray[x][y];
-                    final Point p = modelToView( m.currentPosition , scaleX , scaleY );
-                    if ( m.isSelected() ) 
+            		final int m = snapshot.index( x , y );
+                    final Point p = modelToView( getPosition( snapshot , m , position ) , scaleX , scaleY );
+                    if ( snapshot.hasFlags( m , Mass.FLAG_SELECTED ) ) 
                     {
                         g.setColor(Color.RED );
                         g.drawRect( p.x - halfBoxWidthPixels , p.y - halfBoxHeightPixels , boxWidthPixels , boxHeightPixels );
@@ -485,11 +484,11 @@ public final class RenderPanel extends Canvas implements IRenderPanel {
                     } 
                     else 
                     {
-                        if ( m.isFixed() ) {
+                        if ( snapshot.hasFlags( m , Mass.FLAG_FIXED ) ) {
                             g.setColor( Color.BLUE );
                             g.fillRect( p.x - halfBoxWidthPixels , p.y - halfBoxHeightPixels , boxWidthPixels , boxHeightPixels );								
                         } else {
-                            g.setColor( m.color );
+                            g.setColor( Color.RED );
                             g.drawRect( p.x - halfBoxWidthPixels , p.y - halfBoxHeightPixels , boxWidthPixels , boxHeightPixels );								
                         }
                     }            		
@@ -501,15 +500,30 @@ public final class RenderPanel extends Canvas implements IRenderPanel {
         if ( parameters.isRenderSprings() || parameters.isRenderAllSprings() ) 
         {
             g.setColor(Color.GREEN);
-            for ( Spring s : system.getSprings() ) 
-            {
-                if ( s.doRender ) {
-                    final Point p1 = modelToView( s.m1.currentPosition );
-                    final Point p2 = modelToView( s.m2.currentPosition );
-                    g.setColor( s.color );
-                    g.drawLine( p1.x , p1.y , p2.x , p2.y );
+            final Vector4 position = new Vector4();
+            final boolean renderAllSprings = parameters.isRenderAllSprings();
+            snapshot.visitSprings( new SpringMassSystem.SpringVisitor() {
+
+                @Override
+                public void visit(int m1, int m2, byte type) 
+                {
+                    if ( type == SpringTable.TYPE_STRUCTURAL || renderAllSprings ) 
+                    {
+                        final Point p1 = modelToView( getPosition( snapshot , m1 , position ) );
+                        final Point p2 = modelToView( getPosition( snapshot , m2 , position ) );
+                        g.setColor( SPRING_COLORS[ type ] );
+                        g.drawLine( p1.x , p1.y , p2.x , p2.y );
+                    }
                 }
-            }
+            });
         }
     }	
-}
\ No newline at end of file
+
+    private static Vector4 getPosition(RenderSnapshot snapshot,int index,Vector4 result) 
+    {
+        result.x = snapshot.getX( index );
+        result.y = snapshot.getY( index );
+        result.z = snapshot.getZ( index );
+        return result;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Read-only copy of everything needed to draw a frame: positions, flags and 
+ * which springs are intact.
+ * 
+ * <p>Unlike a copy of the {@link SpringMassSystem}, a snapshot carries none of the 
+ * solver's state (no execution engine, spring table or wind simulator). 
+ * All data is stored in row-major grid order (<code>y*columns+x</code>), independent of the 
+ * simulation's {@link GridLayout}. Springs are stored as a bit mask per particle, using the 
+ * links of {@link GridStencil}.</p>
+ * 
+ * <p>Snapshots are written by {@link SpringMassSystem#writeSnapshot(RenderSnapshot)}, which
+ * only copies the tiles of the grid that changed since the snapshot was last written, and are
+ * passed to the renderer and other consumers through a {@link SnapshotRing}, which guarantees 
+ * that nobody writes to a snapshot while it is being read.</p>
+ */
+public final class RenderSnapshot 
+{
+    public final int columns;
+    public final int rows;
+
+    final double[] x;
+    final double[] y;
+    final double[] z;
+    final byte[] flags;
+    // bit 1 << link is set if the spring along the link is intact
+    final byte[] links;
+
+    int springCount;
+
+    // tracker and version this snapshot was last written with, only tiles
+    // changed since then need to be copied again
+    DirtyTileTracker source;
+    long version;
+
+    public RenderSnapshot(int columns,int rows) 
+    {
+        this.columns = columns;
+        this.rows = rows;
+        final int count = columns*rows;
+        x = new double[count];
+        y = new double[count];
+        z = new double[count];
+        flags = new byte[count];
+        links = new byte[count];
+    }
+
+    public int index(int column,int row) {
+        return row*columns+column;
+    }
+
+    public double getX(int index) {
+        return x[index];
+    }
+
+    public double getY(int index) {
+        return y[index];
+    }
+
+    public double getZ(int index) {
+        return z[index];
+    }
+
+    public boolean hasFlags(int index,int bitMask) {
+        return ( flags[index] & bitMask ) != 0;
+    }
+
+    /**
+     * @return whether the spring along a {@link GridStencil} link of a particle is intact
+     */
+    public boolean isIntact(int index,int link) {
+        return ( links[index] & (1 << link) ) != 0;
+    }
+
+    public int getSpringCount() {
+        return springCount;
+    }
+
+    /**
+     * Visits all intact springs.
+     */
+    public void visitSprings(SpringMassSystem.SpringVisitor visitor) 
+    {
+        for ( int row = 0 ; row < rows ; row++ ) 
+        {
+            for ( int column = 0 ; column < columns ; column++ ) 
+            {
+                final int index = index( column , row );
+                final int mask = links[index];
+                if ( mask == 0 ) {
+                    continue;
+                }
+                for ( int link = 0 ; link < GridStencil.LINK_COUNT ; link++ ) 
+                {
+                    if ( ( mask & (1 << link) ) != 0 ) {
+                        visitor.visit( index , index( column + GridStencil.getLinkDX( link ) , row + GridStencil.getLinkDY( link ) ) , GridStencil.getType( link ) );
+                    }
+                }
+            }
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package de.codesourcery.springmass.springmass;
 
+import java.util.ArrayDeque;
 import java.util.concurrent.CountDownLatch;
 
 public abstract class SimulationClock extends Thread 
@@ -22,6 +23,8 @@ public abstract class SimulationClock extends Thread
 	private final Object LOCK = new Object();
 
 	private boolean runSimulation = false;
+	// @GuardedBy( LOCK )
+	private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
 	private volatile boolean terminate;
 	private final CountDownLatch threadTermination = new CountDownLatch(1);
 
@@ -70,6 +73,19 @@ public abstract class SimulationClock extends Thread
 		}
 	}	
 
+	/**
+	 * Queues a task to be run by the simulation thread in between two ticks, 
+	 * tasks are also run while the clock is stopped.
+	 */
+	public void invokeLater(Runnable task) 
+	{
+		synchronized( LOCK ) 
+		{
+			tasks.add( task );
+			LOCK.notifyAll();
+		}
+	}
+
 	public boolean isClockRunning() {
 		synchronized( LOCK ) 
 		{
@@ -85,7 +101,7 @@ public abstract class SimulationClock extends Thread
 			{
 				synchronized (LOCK) 
 				{
-					while( ! runSimulation && ! terminate) 
+					while( ! runSimulation && ! terminate && tasks.isEmpty() ) 
 					{
 						try {
 							System.out.println("Simulation thread sleeping");
@@ -99,7 +115,10 @@ public abstract class SimulationClock extends Thread
 				if ( terminate ) {
 					break;
 				}
-				tick();
+				runTasks();
+				if ( isClockRunning() ) {
+					tick();
+				}
 			}
 		} 
 		finally 
@@ -108,5 +127,27 @@ public abstract class SimulationClock extends Thread
 		}
 	}
 
+	private void runTasks() 
+	{
+		while ( true ) 
+		{
+			final Runnable task;
+			synchronized( LOCK ) 
+			{
+				task = tasks.poll();
+			}
+			if ( task == null ) {
+				return;
+			}
+			try {
+				task.run();
+			} 
+			catch(Exception e) 
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
 	protected abstract void tick();
 }
\ No newline at end of file
@@ -0,0 +1,345 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many independent {@link SpringMassSystem}s on one shared, fixed-size thread pool.
+ * 
+ * <p>Each hosted system steps on a {@link ExecutionEngineType#SINGLE_THREADED} engine, so 
+ * parallelism comes from running different simulations at the same time instead of 
+ * splitting up a single step. Simulations are scheduled round-robin: a worker runs a slice of 
+ * a few steps and then puts the simulation back at the end of the queue, so 
+ * every simulation makes progress at roughly the same rate no matter how many there are.</p>
+ * 
+ * <p>Each simulation runs until its step budget is used up, it gets cancelled or a step fails. 
+ * Finished simulations are dropped from the farm and their system gets destroyed, the 
+ * {@link Simulation} returned by {@link #submit(SimulationParameters, long)} stays usable 
+ * for reading the results.</p>
+ */
+public final class SimulationFarm 
+{
+    public static final int DEFAULT_STEPS_PER_SLICE = 4;
+
+    private final ThreadPoolExecutor executor;
+    private final int threadCount;
+    private final int stepsPerSlice;
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong completedSteps = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+
+    private final Object LOCK = new Object();
+
+    // @GuardedBy( LOCK )
+    private final Set<Simulation> simulations = new LinkedHashSet<>();
+    // @GuardedBy( LOCK )
+    private int activeCount;
+    // @GuardedBy( LOCK )
+    private boolean shutdown;
+
+    /**
+     * A simulation hosted by a {@link SimulationFarm}.
+     * 
+     * <p>The farm steps the system from its worker threads, code that inspects the system while 
+     * the simulation is still active needs to hold the system's lock (see {@link SpringMassSystem#lock()}).</p>
+     */
+    public final class Simulation implements Runnable 
+    {
+        private final SpringMassSystem system;
+        private final long stepBudget;
+
+        // only written by the worker currently running this simulation
+        private volatile long stepsDone;
+        private volatile long stepNanos;
+        private volatile long maxStepNanos;
+
+        private volatile boolean cancelled;
+        private volatile boolean finished;
+        private volatile Throwable failure;
+
+        private Simulation(SpringMassSystem system,long stepBudget) 
+        {
+            this.system = system;
+            this.stepBudget = stepBudget;
+        }
+
+        @Override
+        public void run() 
+        {
+            if ( cancelled ) {
+                finish();
+                return;
+            }
+
+            final int slice = (int) Math.min( stepsPerSlice , stepBudget - stepsDone );
+            int sliceSteps = 0;
+            long sliceNanos = 0;
+            try 
+            {
+                for ( int i = 0 ; i < slice ; i++ ) 
+                {
+                    final long start = System.nanoTime();
+                    system.step();
+                    final long duration = System.nanoTime() - start;
+                    sliceNanos += duration;
+                    sliceSteps++;
+                    stepsDone++;
+                    stepNanos += duration;
+                    if ( duration > maxStepNanos ) {
+                        maxStepNanos = duration;
+                    }
+                }
+            } 
+            catch(Throwable t) 
+            {
+                failure = t;
+                finish();
+                return;
+            } 
+            finally 
+            {
+                completedSteps.addAndGet( sliceSteps );
+                busyNanos.addAndGet( sliceNanos );
+            }
+
+            if ( stepsDone >= stepBudget || cancelled ) {
+                finish();
+                return;
+            }
+            try {
+                executor.execute( this );
+            } 
+            catch(RejectedExecutionException e) {
+                // farm got shut down
+                finish();
+            }
+        }
+
+        private void finish() 
+        {
+            try 
+            {
+                system.destroy();
+            } 
+            catch (InterruptedException e) 
+            {
+                Thread.currentThread().interrupt();
+            } 
+            finally 
+            {
+                synchronized( LOCK ) 
+                {
+                    if ( ! finished ) 
+                    {
+                        finished = true;
+                        simulations.remove( this );
+                        activeCount--;
+                        LOCK.notifyAll();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Stops this simulation after the current slice.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public SpringMassSystem getSystem() {
+            return system;
+        }
+
+        public long getStepBudget() {
+            return stepBudget;
+        }
+
+        public long getStepsDone() {
+            return stepsDone;
+        }
+
+        public double getAverageStepMillis() 
+        {
+            final long steps = stepsDone;
+            return steps == 0 ? 0 : stepNanos / 1000000.0 / steps;
+        }
+
+        public double getMaxStepMillis() {
+            return maxStepNanos / 1000000.0;
+        }
+
+        public boolean isFinished() {
+            return finished;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * @return exception thrown by a step, <code>null</code> if none was thrown
+         */
+        public Throwable getFailure() {
+            return failure;
+        }
+    }
+
+    /**
+     * 
+     * @param threadCount number of worker threads, values &lt;= 0 select {@link ExecutionEngineType#getDefaultThreadCount()}
+     * @param stepsPerSlice number of steps a simulation runs before it goes back to the end of the queue
+     */
+    public SimulationFarm(int threadCount,int stepsPerSlice) 
+    {
+        if ( stepsPerSlice < 1 ) {
+            throw new IllegalArgumentException("Steps per slice must be >= 1");
+        }
+        this.threadCount = threadCount > 0 ? threadCount : ExecutionEngineType.getDefaultThreadCount();
+        this.stepsPerSlice = stepsPerSlice;
+
+        final ThreadFactory threadFactory = new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                final Thread t = new Thread(r,"farm-thread");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        // FIFO queue, re-queued simulations go to the end of the line
+        executor = new ThreadPoolExecutor( this.threadCount , this.threadCount , 60 , TimeUnit.SECONDS , 
+                new LinkedBlockingQueue<Runnable>() , threadFactory );
+        executor.prestartAllCoreThreads();
+    }
+
+    /**
+     * Creates a system and schedules it for execution.
+     * 
+     * @param params simulation parameters, the execution engine is always replaced with {@link ExecutionEngineType#SINGLE_THREADED}
+     * @param stepBudget max. number of steps to run, use {@link Long#MAX_VALUE} to run until cancelled
+     * @return the hosted simulation
+     * @throws IllegalStateException if the farm has been shut down
+     */
+    public Simulation submit(SimulationParameters params,long stepBudget) 
+    {
+        if ( stepBudget < 1 ) {
+            throw new IllegalArgumentException("Step budget must be >= 1");
+        }
+        final SpringMassSystem system = new SpringMassSystemFactory().create( params.withExecutionEngine( ExecutionEngineType.SINGLE_THREADED , 1 ) );
+        final Simulation simulation = new Simulation( system , stepBudget );
+        synchronized( LOCK ) 
+        {
+            if ( shutdown ) {
+                throw new IllegalStateException("Farm has been shut down");
+            }
+            simulations.add( simulation );
+            activeCount++;
+        }
+        executor.execute( simulation );
+        return simulation;
+    }
+
+    /**
+     * Waits until all simulations submitted so far have finished.
+     */
+    public void awaitCompletion() throws InterruptedException 
+    {
+        synchronized( LOCK ) 
+        {
+            while ( activeCount > 0 ) {
+                LOCK.wait();
+            }
+        }
+    }
+
+    /**
+     * Cancels all simulations and waits for them and the worker threads to finish.
+     */
+    public void shutdown() throws InterruptedException 
+    {
+        final List<Simulation> copy;
+        synchronized( LOCK ) 
+        {
+            shutdown = true;
+            copy = new ArrayList<>( simulations );
+        }
+        for ( Simulation s : copy ) {
+            s.cancel();
+        }
+        awaitCompletion();
+        executor.shutdown();
+        executor.awaitTermination( 60 , TimeUnit.SECONDS );
+    }
+
+    /**
+     * @return simulations that have not finished yet
+     */
+    public List<Simulation> getSimulations() 
+    {
+        synchronized( LOCK ) {
+            return new ArrayList<>( simulations );
+        }
+    }
+
+    public int getActiveSimulationCount() 
+    {
+        synchronized( LOCK ) {
+            return activeCount;
+        }
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @return total number of steps run by all simulations
+     */
+    public long getCompletedSteps() {
+        return completedSteps.get();
+    }
+
+    /**
+     * @return average number of steps per second since the farm was created
+     */
+    public double getStepsPerSecond() 
+    {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed == 0 ? 0 : completedSteps.get() * 1000000000.0 / elapsed;
+    }
+
+    /**
+     * @return fraction of time the worker threads spent stepping simulations since the farm was created
+     */
+    public double getUtilization() 
+    {
+        final long elapsed = System.nanoTime() - startNanos;
+        return elapsed == 0 ? 0 : busyNanos.get() / ( (double) elapsed * threadCount );
+    }
+}
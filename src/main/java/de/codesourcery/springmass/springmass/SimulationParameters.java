@@ -60,8 +60,19 @@ public final class SimulationParameters
 	
 	private final double maxParticleSpeed;
 	private final int forkJoinBatchSize;
+	private final int springBatchFactor;
+	private final boolean autoTunePartitioning;
+	private final double snapshotEpsilon;
+	private final boolean pipelinedPublishing;
 	
 	private final double integratonTimeStep;
+	
+	private final boolean offHeapStorage;
+	private final boolean singlePrecision;
+	private final SolverType solverType;
+	private final GridLayout gridLayout;
+	private final ExecutionEngineType executionEngine;
+	private final int threadCount;
 
 	public SimulationParameters(int xResolution, 
 			int yResolution,
@@ -89,7 +100,17 @@ public final class SimulationParameters
 			double maxSpringLength,
 			int iterationCount,
 			boolean waitForVSync,
-			WindParameters windParameters) 
+			WindParameters windParameters,
+			boolean offHeapStorage,
+			boolean singlePrecision,
+			SolverType solverType,
+			GridLayout gridLayout,
+			ExecutionEngineType executionEngine,
+			int threadCount,
+			int springBatchFactor,
+			boolean autoTunePartitioning,
+			double snapshotEpsilon,
+			boolean pipelinedPublishing) 
 	{
 		this.xResolution = xResolution;
 		this.yResolution = yResolution;
@@ -117,6 +138,79 @@ public final class SimulationParameters
 		this.iterationCount = iterationCount;
 		this.waitForVSync = waitForVSync;
 		this.windParameters.set( windParameters );
+		this.offHeapStorage = offHeapStorage;
+		this.singlePrecision = singlePrecision;
+		this.solverType = solverType;
+		this.gridLayout = gridLayout;
+		this.executionEngine = executionEngine;
+		this.threadCount = threadCount;
+		this.springBatchFactor = springBatchFactor;
+		this.autoTunePartitioning = autoTunePartitioning;
+		this.snapshotEpsilon = snapshotEpsilon;
+		this.pipelinedPublishing = pipelinedPublishing;
+	}
+	
+	private SimulationParameters(SimulationParameters other,int forkJoinBatchSize,int springBatchFactor,ExecutionEngineType executionEngine,int threadCount) 
+	{
+		this.xResolution = other.xResolution;
+		this.yResolution = other.yResolution;
+		this.debugPerformance = other.debugPerformance;
+		this.desiredFPS = other.desiredFPS;
+		this.renderAllSprings = other.renderAllSprings;
+		this.renderSprings = other.renderSprings;
+		this.renderMasses = other.renderMasses;
+		this.mouseDragZDepth = other.mouseDragZDepth;
+		this.verticalRestLengthFactor = other.verticalRestLengthFactor;
+		this.horizontalRestLengthFactor = other.horizontalRestLengthFactor;
+		this.lightSurfaces = other.lightSurfaces;
+		this.lightPosition = other.lightPosition;
+		this.lightColor = other.lightColor;
+		this.gravity = other.gravity;
+		this.gridColumnCount = other.gridColumnCount;
+		this.gridRowCount = other.gridRowCount;
+		this.maxParticleSpeed = other.maxParticleSpeed;
+		this.forkJoinBatchSize = forkJoinBatchSize;
+		this.springCoefficient = other.springCoefficient;
+		this.maxSpringLength = other.maxSpringLength;
+		this.springDampening = other.springDampening;
+		this.particleMass = other.particleMass;
+		this.integratonTimeStep = other.integratonTimeStep;
+		this.iterationCount = other.iterationCount;
+		this.waitForVSync = other.waitForVSync;
+		this.windParameters.set( other.windParameters );
+		this.offHeapStorage = other.offHeapStorage;
+		this.singlePrecision = other.singlePrecision;
+		this.solverType = other.solverType;
+		this.gridLayout = other.gridLayout;
+		this.executionEngine = executionEngine;
+		this.threadCount = threadCount;
+		this.springBatchFactor = springBatchFactor;
+		this.autoTunePartitioning = other.autoTunePartitioning;
+		this.snapshotEpsilon = other.snapshotEpsilon;
+		this.pipelinedPublishing = other.pipelinedPublishing;
+	}
+	
+	/**
+	 * Returns a copy of these parameters with a different partitioning.
+	 * 
+	 * @param forkJoinBatchSize
+	 * @param springBatchFactor
+	 * @return
+	 * @see PartitionAutoTuner
+	 */
+	public SimulationParameters withPartitioning(int forkJoinBatchSize,int springBatchFactor) {
+		return new SimulationParameters( this , forkJoinBatchSize , springBatchFactor , executionEngine , threadCount );
+	}
+	
+	/**
+	 * Returns a copy of these parameters with a different execution engine.
+	 * 
+	 * @param executionEngine
+	 * @param threadCount
+	 * @return
+	 */
+	public SimulationParameters withExecutionEngine(ExecutionEngineType executionEngine,int threadCount) {
+		return new SimulationParameters( this , forkJoinBatchSize , springBatchFactor , executionEngine , threadCount );
 	}
 	
 	public boolean isWaitForVSync()
@@ -199,6 +293,37 @@ public final class SimulationParameters
 	public int getForkJoinBatchSize() {
 		return forkJoinBatchSize;
 	}
+	
+	/**
+	 * @return batch size of spring phases, as a multiple of {@link #getForkJoinBatchSize()}
+	 */
+	public int getSpringBatchFactor() {
+		return springBatchFactor;
+	}
+	
+	/**
+	 * @return whether to pick batch sizes by timing the first few hundred steps
+	 * @see PartitionAutoTuner
+	 */
+	public boolean isAutoTunePartitioning() {
+		return autoTunePartitioning;
+	}
+	
+	/**
+	 * @return distance a particle needs to move before render snapshots pick up the new position
+	 * @see DirtyTileTracker
+	 */
+	public double getSnapshotEpsilon() {
+		return snapshotEpsilon;
+	}
+	
+	/**
+	 * @return whether render snapshots are written on a separate thread while the next step is computed
+	 * @see Simulator
+	 */
+	public boolean isPipelinedPublishing() {
+		return pipelinedPublishing;
+	}
 
 	public double getSpringDampening() {
 		return springDampening;
@@ -224,4 +349,35 @@ public final class SimulationParameters
 	public WindParameters getWindParameters() {
 		return windParameters;
 	}
+	
+	public boolean isOffHeapStorage() {
+		return offHeapStorage;
+	}
+	
+	public StorageType getStorageType() {
+		return offHeapStorage ? StorageType.OFF_HEAP : StorageType.HEAP;
+	}
+	
+	public boolean isSinglePrecision() {
+		return singlePrecision;
+	}
+	
+	public SolverType getSolverType() {
+		return solverType;
+	}
+	
+	public GridLayout getGridLayout() {
+		return gridLayout;
+	}
+	
+	public ExecutionEngineType getExecutionEngine() {
+		return executionEngine;
+	}
+	
+	/**
+	 * @return number of worker threads, values &lt;= 0 select a default based on the number of CPUs
+	 */
+	public int getThreadCount() {
+		return threadCount;
+	}
 }
@@ -84,10 +84,21 @@ public class SimulationParamsBuilder {
 
 	private double maxParticleSpeed;
 	private int forkJoinBatchSize;
+	private int springBatchFactor;
+	private boolean autoTunePartitioning;
+	private double snapshotEpsilon;
+	private boolean pipelinedPublishing;
 	
 	private double integrationTimeStep;
 	private int iterationCount;
 	
+	private boolean offHeapStorage;
+	private boolean singlePrecision;
+	private SolverType solverType;
+	private GridLayout gridLayout;
+	private ExecutionEngineType executionEngine;
+	private int threadCount;
+	
 	public static interface Hint {
 	}
 	
@@ -257,11 +268,22 @@ public class SimulationParamsBuilder {
 		integrationTimeStep = 50;
 		iterationCount = 5;		
 		forkJoinBatchSize = 250;	
+		springBatchFactor = 5;
+		autoTunePartitioning = false;
+		snapshotEpsilon = 0.1;
+		pipelinedPublishing = false;
 		
 		debugPerformance=false;		
 		desiredFPS = 60;
 		waitForVSync = true;		
 		
+		offHeapStorage = false;
+		singlePrecision = false;
+		solverType = SolverType.SPRING_TABLE;
+		gridLayout = GridLayout.COLUMN_MAJOR;
+		executionEngine = ExecutionEngineType.THREAD_POOL;
+		threadCount = 0;
+		
 		final float oneDegree = (float) (2f*Math.PI)/360.0f;
 		final float maxAngle = (float) (2*Math.PI - oneDegree);
 		this.windParameters.setMinAngle( new SphericalCoordinates( 0 , 0 ) );
@@ -290,7 +312,8 @@ public class SimulationParamsBuilder {
 				verticalRestLengthFactor, horizontalRestLengthFactor, 
 				lightSurfaces, lightPosition, lightColor, gravity, 
 				gridColumnCount, gridRowCount, maxParticleSpeed, forkJoinBatchSize,springCoefficient , springDampening,particleMass,debugPerformance,
-				integrationTimeStep,maxSpringLength,getIterationCount(),waitForVSync , windParameters );
+				integrationTimeStep,maxSpringLength,getIterationCount(),waitForVSync , windParameters , offHeapStorage , singlePrecision , solverType , gridLayout , executionEngine , threadCount ,
+				springBatchFactor , autoTunePartitioning , snapshotEpsilon , pipelinedPublishing );
 	}
 	
 	public double getMaxSpringLength() {
@@ -694,6 +717,44 @@ public class SimulationParamsBuilder {
 		this.forkJoinBatchSize = forkJoinBatchSize;
 	}
 
+	public int getSpringBatchFactor() {
+		return springBatchFactor;
+	}
+
+    @ValueRange(minValue=1,maxValue=20)
+    @Label("Spring batch size factor")
+	public void setSpringBatchFactor(int springBatchFactor) {
+		this.springBatchFactor = springBatchFactor;
+	}
+
+	public boolean isAutoTunePartitioning() {
+		return autoTunePartitioning;
+	}
+
+    @Label("Auto-tune batch sizes")
+	public void setAutoTunePartitioning(boolean autoTunePartitioning) {
+		this.autoTunePartitioning = autoTunePartitioning;
+	}
+
+	public double getSnapshotEpsilon() {
+		return snapshotEpsilon;
+	}
+
+    @ValueRange(minValue=0,maxValue=5)
+    @Label("Render snapshot epsilon")
+	public void setSnapshotEpsilon(double snapshotEpsilon) {
+		this.snapshotEpsilon = snapshotEpsilon;
+	}
+
+	public boolean isPipelinedPublishing() {
+		return pipelinedPublishing;
+	}
+
+    @Label("Publish frames while stepping")
+	public void setPipelinedPublishing(boolean pipelinedPublishing) {
+		this.pipelinedPublishing = pipelinedPublishing;
+	}
+
 	public double getSpringDampening() {
 		return springDampening;
 	}
@@ -750,6 +811,62 @@ public class SimulationParamsBuilder {
         this.waitForVSync = waitForVSync;
     }
     
+    public boolean isOffHeapStorage() {
+        return offHeapStorage;
+    }
+    
+    @Label("Off-heap particle/spring storage")
+    public void setOffHeapStorage(boolean offHeapStorage) {
+        this.offHeapStorage = offHeapStorage;
+    }
+    
+    // not offered in the control panel, single precision is slower than double precision
+    @IgnoreMethod
+    public boolean isSinglePrecision() {
+        return singlePrecision;
+    }
+    
+    @IgnoreMethod
+    public void setSinglePrecision(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+    
+    public SolverType getSolverType() {
+        return solverType;
+    }
+    
+    @Label("Solver")
+    public void setSolverType(SolverType solverType) {
+        this.solverType = solverType;
+    }
+    
+    public GridLayout getGridLayout() {
+        return gridLayout;
+    }
+    
+    @Label("Particle memory layout")
+    public void setGridLayout(GridLayout gridLayout) {
+        this.gridLayout = gridLayout;
+    }
+    
+    public ExecutionEngineType getExecutionEngine() {
+        return executionEngine;
+    }
+    
+    @Label("Execution engine")
+    public void setExecutionEngine(ExecutionEngineType executionEngine) {
+        this.executionEngine = executionEngine;
+    }
+    
+    public int getThreadCount() {
+        return threadCount;
+    }
+    
+    @Label("Worker threads (0 = auto)")
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+    
     public float getMinWindForce() {
     	return windParameters.getMinForce();
     }
@@ -19,13 +19,49 @@ package de.codesourcery.springmass.springmass;
 public abstract class Simulator {
 
 	private final SpringMassSystem system;
+	// frames for the renderer and other consumers, written by the simulation thread
+	private final SnapshotRing snapshots;
+	// null if snapshots are published by the simulation thread
+	private final SnapshotPublisher publisher;
+	
+	private final Runnable publishTask = new Runnable() 
+	{
+		@Override
+		public void run() 
+		{
+			system.updateSnapshotState();
+			if ( publisher != null ) {
+				publisher.stepFinished();
+			} else {
+				publishSnapshot();
+			}
+		}
+	};
 	private final SimulationClock simulationClock;
-	private final SimulationParameters parameters;
+	private volatile SimulationParameters parameters;
+	// null if auto-tuning is disabled or finished
+	private PartitionAutoTuner autoTuner;
 	
 	public Simulator(final SimulationParameters parameters) 
 	{
 		this.parameters = parameters;
 		this.system = new SpringMassSystemFactory().create(parameters);
+		this.snapshots = new SnapshotRing( system , SnapshotRing.DEFAULT_MAX_CONSUMERS );
+		if ( parameters.isPipelinedPublishing() ) 
+		{
+			publisher = new SnapshotPublisher();
+			publisher.start();
+		} else {
+			publisher = null;
+		}
+		
+		if ( parameters.isAutoTunePartitioning() && parameters.getExecutionEngine().isUsingGrainSize() ) 
+		{
+			autoTuner = new PartitionAutoTuner( system.getParticles().count , system.getThreadCount() , 
+					parameters.getForkJoinBatchSize() , parameters.getSpringBatchFactor() , system.getSprings() != null , 
+					PartitionAutoTuner.DEFAULT_WARMUP_STEPS , PartitionAutoTuner.DEFAULT_STEPS_PER_CANDIDATE );
+			system.setPartitioning( autoTuner.getBatchSize() , autoTuner.getSpringBatchFactor() );
+		}
 
 		this.simulationClock = new SimulationClock() {
 
@@ -38,9 +74,15 @@ public abstract class Simulator {
 			protected void tick() 
 			{
 				long stepTime = -System.currentTimeMillis();
+				final long startNanos = System.nanoTime();
 				
 				try {
 				    system.step();
+				    if ( publisher != null ) {
+				        publisher.stepFinished();
+				    } else {
+				        publishSnapshot();
+				    }
 				} 
 				catch(Exception e) 
 				{
@@ -49,6 +91,9 @@ public abstract class Simulator {
 				finally 
 				{
 				    stepTime += System.currentTimeMillis();
+				    if ( autoTuner != null ) {
+				        autoTune( System.nanoTime() - startNanos );
+				    }
 				    
 	                minTime = Math.min(minTime, stepTime);
 	                maxTime = Math.max(maxTime, stepTime);
@@ -70,8 +115,115 @@ public abstract class Simulator {
 		simulationClock.start();		
 	}
 	
+	/**
+	 * Publishes snapshots on its own thread, so that writing the snapshot of step N 
+	 * overlaps with computing step N+1.
+	 * 
+	 * <p>Snapshots are written from the state of the last completed step, which the simulation
+	 * thread only locks briefly at the end of each step. If a step completes before the previous 
+	 * one got published, only the newer one is published.</p>
+	 */
+	private final class SnapshotPublisher extends Thread 
+	{
+		private final Object LOCK = new Object();
+		
+		// @GuardedBy( LOCK )
+		private boolean stepFinished;
+		// @GuardedBy( LOCK )
+		private boolean terminate;
+		
+		public SnapshotPublisher() {
+			setName("snapshot-publisher");
+			setDaemon(true);
+		}
+		
+		public void stepFinished() 
+		{
+			synchronized( LOCK ) 
+			{
+				stepFinished = true;
+				LOCK.notifyAll();
+			}
+		}
+		
+		public void terminate() throws InterruptedException 
+		{
+			synchronized( LOCK ) 
+			{
+				terminate = true;
+				LOCK.notifyAll();
+			}
+			join();
+		}
+		
+		@Override
+		public void run() 
+		{
+			while ( true ) 
+			{
+				synchronized( LOCK ) 
+				{
+					while ( ! stepFinished && ! terminate ) 
+					{
+						try {
+							LOCK.wait();
+						} catch (InterruptedException e) {
+						}
+					}
+					if ( terminate ) {
+						return;
+					}
+					stepFinished = false;
+				}
+				try {
+					publishSnapshot();
+				} 
+				catch(Exception e) 
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	// only invoked by a single thread, either the simulation thread or the publisher
+	private void publishSnapshot() 
+	{
+		final RenderSnapshot snapshot = snapshots.claim();
+		if ( snapshot != null ) 
+		{
+			system.writeSnapshot( snapshot );
+			snapshots.publish();
+		}
+	}
+	
+	private void autoTune(long stepNanos) 
+	{
+		if ( autoTuner.stepFinished( stepNanos ) ) {
+			system.setPartitioning( autoTuner.getBatchSize() , autoTuner.getSpringBatchFactor() );
+		}
+		if ( autoTuner.isSettled() ) 
+		{
+			autoTuner = null;
+			parameters = parameters.withPartitioning( system.getBatchSize() , system.getSpringBatchFactor() );
+			if ( parameters.isDebugPerformance() ) {
+				System.out.println("Auto-tuning finished: batch size "+parameters.getForkJoinBatchSize()+" , spring batch factor "+parameters.getSpringBatchFactor());
+			}
+			partitioningTuned( parameters );
+		}
+	}
+	
 	protected abstract void afterTick();
 	
+	/**
+	 * Invoked from the simulation thread once auto-tuning has picked a partitioning.
+	 * 
+	 * @param tunedParameters the simulation parameters, including the chosen batch sizes 
+	 * @see SimulationParameters#isAutoTunePartitioning()
+	 */
+	protected void partitioningTuned(SimulationParameters tunedParameters) {
+	}
+	
 	public void start() 
 	{
 		simulationClock.startClock();
@@ -86,6 +238,9 @@ public abstract class Simulator {
 		simulationClock.destroy();
 		try 
 		{
+			if ( publisher != null ) {
+				publisher.terminate();
+			}
             system.destroy();
         } 
 		catch (InterruptedException e) 
@@ -98,10 +253,53 @@ public abstract class Simulator {
 		simulationClock.stopClock();
 	}	
 	
+	/**
+	 * Publishes a snapshot of the current state without stepping, so that changes 
+	 * made while the simulation is stopped become visible.
+	 * 
+	 * <p>The snapshot is published by the simulation thread, which stays the only writer
+	 * of the {@link #getRenderSnapshots() snapshot ring}.</p>
+	 */
+	public void publishSnapshotLater() {
+		simulationClock.invokeLater( publishTask );
+	}
+	
+	/**
+	 * Applies a change to the simulation on the simulation thread, in between two steps 
+	 * and while holding the system lock.
+	 * 
+	 * <p>User interface code must not modify the {@link SpringMassSystem} directly, 
+	 * solvers may swap particle buffers during a step.</p>
+	 */
+	public void queueEdit(final Runnable edit) 
+	{
+		simulationClock.invokeLater( new Runnable() 
+		{
+			@Override
+			public void run() 
+			{
+				system.lock();
+				try {
+					edit.run();
+				} finally {
+					system.unlock();
+				}
+			}
+		});
+	}
+	
 	public SpringMassSystem getSpringMassSystem() {
 		return system;
 	}
 	
+	/**
+	 * Returns the snapshots published after each simulation step, 
+	 * each reader needs to register its own {@link SnapshotRing.Consumer}.
+	 */
+	public SnapshotRing getRenderSnapshots() {
+		return snapshots;
+	}
+	
 	public SimulationParameters getSimulationParameters() {
 		return parameters;
 	}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Runs everything on the calling thread, for hosting many small systems 
+ * on a shared set of threads (see {@link SimulationFarm}).
+ */
+final class SingleThreadedEngine extends AbstractExecutionEngine 
+{
+    @Override
+    public void forEach(int size,int grainSize,RangeTask task) 
+    {
+        for ( int start = 0 ; start < size ; start += grainSize ) {
+            task.run( start , Math.min( start + grainSize , size ) );
+        }
+    }
+
+    @Override
+    public int getThreadCount() {
+        return 1;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free hand-off of {@link RenderSnapshot}s from one writer thread to several consumers 
+ * (renderer, recorder, metrics...) that each read at their own pace.
+ * 
+ * <p>The writer {@link #claim() claims} a free slot, writes to it and {@link #publish() publishes} it.
+ * Each consumer thread owns a {@link Consumer} that holds at most one frame at a time; 
+ * slots are reference-counted so a slot is only written again once no consumer holds it.
+ * There are two more slots than consumers, so the writer always finds a free one and 
+ * never waits. Consumers only ever get the newest published frame, a slow consumer 
+ * skips frames instead of holding up the writer.</p>
+ * 
+ * <p>Each slot keeps its contents, so the writer gets a snapshot that may be several frames old
+ * and {@link SpringMassSystem#writeSnapshot(RenderSnapshot)} only copies what changed since.</p>
+ */
+public final class SnapshotRing 
+{
+    public static final int DEFAULT_MAX_CONSUMERS = 4;
+
+    // reference count of a slot while the writer owns it
+    private static final int WRITING = -1;
+    private static final int SLOT_BITS = 8;
+    private static final int SLOT_MASK = ( 1 << SLOT_BITS ) - 1;
+
+    private final RenderSnapshot[] slots;
+    private final AtomicIntegerArray refCounts;
+    // sequence number of the frame in each slot, written before the slot is released
+    private final long[] sequences;
+
+    // sequence << SLOT_BITS | slot of the newest frame 
+    private final AtomicLong published;
+
+    private final int maxConsumers;
+    private final AtomicInteger consumerCount = new AtomicInteger();
+
+    // only accessed by the writer
+    private int claimed = -1;
+    private long sequence;
+    private long droppedFrames;
+
+    /**
+     * Creates a ring and publishes an initial frame.
+     * 
+     * @param system system to create snapshots for, the initial frame is written from it
+     * @param maxConsumers
+     */
+    public SnapshotRing(SpringMassSystem system,int maxConsumers) 
+    {
+        if ( maxConsumers < 1 || maxConsumers + 2 > SLOT_MASK ) {
+            throw new IllegalArgumentException("Invalid consumer count: "+maxConsumers);
+        }
+        this.maxConsumers = maxConsumers;
+        slots = new RenderSnapshot[ maxConsumers + 2 ];
+        for ( int i = 0 ; i < slots.length ; i++ ) {
+            slots[i] = system.createSnapshot();
+        }
+        refCounts = new AtomicIntegerArray( slots.length );
+        sequences = new long[ slots.length ];
+
+        system.writeSnapshot( slots[0] );
+        published = new AtomicLong( 0 );
+    }
+
+    /**
+     * Claims a slot for writing, must only be called by the writer.
+     * 
+     * @return the slot to write to, <code>null</code> if consumers hold more frames 
+     * than they should and the frame needs to be dropped
+     */
+    public RenderSnapshot claim() 
+    {
+        if ( claimed != -1 ) {
+            throw new IllegalStateException("Slot "+claimed+" has already been claimed");
+        }
+        // never claim the newest frame, consumers need to be able to get it
+        final int newest = (int) published.get() & SLOT_MASK;
+        for ( int i = 1 ; i < slots.length ; i++ ) 
+        {
+            final int slot = ( newest + i ) % slots.length;
+            if ( refCounts.compareAndSet( slot , 0 , WRITING ) ) 
+            {
+                claimed = slot;
+                return slots[slot];
+            }
+        }
+        droppedFrames++;
+        return null;
+    }
+
+    /**
+     * Publishes the claimed slot as the newest frame, must only be called by the writer.
+     */
+    public void publish() 
+    {
+        if ( claimed == -1 ) {
+            throw new IllegalStateException("No slot claimed");
+        }
+        sequence++;
+        sequences[ claimed ] = sequence;
+        refCounts.set( claimed , 0 );
+        published.set( sequence << SLOT_BITS | claimed );
+        claimed = -1;
+    }
+
+    /**
+     * @return number of frames the writer dropped because no slot was free
+     */
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Registers a consumer, the consumer must only be used by a single thread.
+     * 
+     * @throws IllegalStateException if the maximum number of consumers is already registered
+     */
+    public Consumer createConsumer() 
+    {
+        while( true ) 
+        {
+            final int count = consumerCount.get();
+            if ( count == maxConsumers ) {
+                throw new IllegalStateException("Snapshot ring supports at most "+maxConsumers+" consumers");
+            }
+            if ( consumerCount.compareAndSet( count , count+1 ) ) {
+                return new Consumer();
+            }
+        }
+    }
+
+    /**
+     * A reader's cursor, holds at most one frame.
+     */
+    public final class Consumer 
+    {
+        private int slot = -1;
+        // -1 until the first frame has been acquired
+        private long frameSequence = -1;
+        private long skippedFrames;
+        private boolean closed;
+
+        /**
+         * Releases the current frame and acquires the newest one, if a newer frame has been published.
+         * 
+         * @return <code>true</code> if {@link #getFrame()} returns a different frame now
+         */
+        public boolean update() 
+        {
+            if ( closed ) {
+                throw new IllegalStateException("Consumer has been closed");
+            }
+            if ( slot != -1 && ( published.get() >>> SLOT_BITS ) <= frameSequence ) {
+                return false;
+            }
+            release();
+
+            // the writer never claims the newest frame, 
+            // so this only retries if the writer published again in the meantime
+            while ( true ) 
+            {
+                final int newest = (int) published.get() & SLOT_MASK;
+                final int count = refCounts.get( newest );
+                if ( count != WRITING && refCounts.compareAndSet( newest , count , count+1 ) ) 
+                {
+                    slot = newest;
+                    break;
+                }
+            }
+            // the slot may have been written again since, 
+            // but only with a newer frame that is complete once we hold a reference
+            final long newSequence = sequences[ slot ];
+            if ( frameSequence != -1 ) {
+                skippedFrames += newSequence - frameSequence - 1;
+            }
+            frameSequence = newSequence;
+            return true;
+        }
+
+        /**
+         * @return the current frame, <code>null</code> if {@link #update()} has not been called yet
+         */
+        public RenderSnapshot getFrame() {
+            return slot == -1 ? null : slots[ slot ];
+        }
+
+        /**
+         * @return sequence number of the current frame, the initial frame has sequence number 0, 
+         * <code>-1</code> if {@link #update()} has not been called yet
+         */
+        public long getFrameSequence() {
+            return frameSequence;
+        }
+
+        /**
+         * @return number of published frames this consumer never saw
+         */
+        public long getSkippedFrames() {
+            return skippedFrames;
+        }
+
+        private void release() 
+        {
+            if ( slot != -1 ) 
+            {
+                refCounts.decrementAndGet( slot );
+                slot = -1;
+            }
+        }
+
+        /**
+         * Releases the current frame and unregisters this consumer.
+         */
+        public void close() 
+        {
+            if ( ! closed ) 
+            {
+                release();
+                closed = true;
+                consumerCount.decrementAndGet();
+            }
+        }
+    }
+}
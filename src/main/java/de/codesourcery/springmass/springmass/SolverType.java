@@ -0,0 +1,44 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * How spring forces are calculated.
+ */
+public enum SolverType 
+{
+    /**
+     * Every spring is stored explicitly in a {@link SpringTable}.
+     */
+    SPRING_TABLE,
+    /**
+     * Springs are derived from fixed neighbour offsets in the particle grid, 
+     * only a bit mask of torn springs is stored (see {@link GridStencil}).
+     */
+    GRID_STENCIL,
+    /**
+     * Like {@link #GRID_STENCIL} but tears springs, gathers forces and integrates each 
+     * range of particles in a single pass, reading positions of the previous iteration
+     * from a second buffer.
+     */
+    FUSED_GRID_STENCIL,
+    /**
+     * Springs are stored in a {@link SpringTable} and colored (see {@link SpringColoring}), 
+     * instead of applying spring forces, each iteration moves particles directly to 
+     * satisfy the springs' rest lengths one color at a time (position-based Gauss-Seidel).
+     */
+    GAUSS_SEIDEL;
+}
@@ -58,12 +58,18 @@ public class SphericalCoordinates {
 	}
 	
 	public Vector4 toUnitVector() {
+		return toUnitVector( new Vector4() );
+	}
+	
+	public Vector4 toUnitVector(Vector4 result) {
 		
 		final float x = (float) ( Math.sin( xzAngleInRad ) * Math.cos( xyAngleInRad ) );
 		final float y = (float) ( Math.sin( xzAngleInRad ) * Math.sin( xyAngleInRad ) );
 		final float z = (float)   Math.cos( xzAngleInRad ); 
 		
-		return new Vector4(x,y,z,1);
+		result.set(x,y,z);
+		result.w = 1;
+		return result;
 	}
 	
 	private float assertValidAngleInRad(float rad) {
@@ -0,0 +1,117 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A re-usable barrier for a fixed set of threads that busy-waits for a while 
+ * before parking.
+ *
+ * <p>When phases are short, spinning lets waiting threads continue right away 
+ * instead of paying for a park/unpark round-trip. Parked threads are only 
+ * unparked if at least one thread actually went to sleep.</p>
+ */
+public final class SpinningBarrier 
+{
+    private final int parties;
+    private final int spinLimit;
+    private final Thread[] threads;
+
+    private final AtomicInteger arrived = new AtomicInteger();
+    private final AtomicInteger sleeping = new AtomicInteger();
+    private volatile int generation;
+
+    /**
+     * @param parties number of threads that need to call {@link #await()} 
+     * @param spinLimit number of times to check for the barrier to trip before parking
+     */
+    public SpinningBarrier(int parties,int spinLimit) 
+    {
+        if ( parties < 1 ) {
+            throw new IllegalArgumentException("Invalid number of parties: "+parties);
+        }
+        this.parties = parties;
+        this.spinLimit = spinLimit;
+        this.threads = new Thread[ parties ];
+    }
+
+    /**
+     * Registers a participating thread so it can be unparked, must be called 
+     * before the thread invokes {@link #await()}.
+     */
+    public void register(int party,Thread thread) {
+        threads[party] = thread;
+    }
+
+    public int getParties() {
+        return parties;
+    }
+
+    /**
+     * Waits until all parties arrived.
+     * 
+     * <p>Interrupts are deferred until the barrier tripped, just like with {@link CompletionLatch}.</p>
+     */
+    public void await() 
+    {
+        final int currentGeneration = generation;
+        if ( arrived.incrementAndGet() == parties ) 
+        {
+            arrived.set( 0 );
+            generation = currentGeneration + 1;
+            if ( sleeping.get() > 0 ) 
+            {
+                final Thread current = Thread.currentThread();
+                for ( Thread t : threads ) 
+                {
+                    if ( t != current ) {
+                        LockSupport.unpark( t );
+                    }
+                }
+            }
+            return;
+        }
+
+        for ( int i = 0 ; i < spinLimit ; i++ ) 
+        {
+            if ( generation != currentGeneration ) {
+                return;
+            }
+        }
+
+        boolean interrupted = false;
+        sleeping.incrementAndGet();
+        try 
+        {
+            // the thread that trips the barrier updates the generation before checking for sleepers
+            while ( generation == currentGeneration ) 
+            {
+                LockSupport.park( this );
+                if ( Thread.interrupted() ) {
+                    interrupted = true;
+                }
+            }
+        } 
+        finally {
+            sleeping.decrementAndGet();
+        }
+        if ( interrupted ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
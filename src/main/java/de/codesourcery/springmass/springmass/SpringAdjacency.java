@@ -0,0 +1,111 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Compressed sparse row (CSR) mapping from particles to their attached springs.
+ *
+ * <p>The springs of particle <code>p</code> are stored at
+ * <code>spring[ offset[p] ... offset[p]+degree[p]-1 ]</code>, together with the
+ * sign (+1 if <code>p</code> is the spring's first mass, -1 otherwise) that
+ * needs to be applied to the spring's force.</p>
+ *
+ * <p>Each particle keeps the slots it had when the adjacency was built, so
+ * removing springs only shrinks the segments of their endpoints in place.</p>
+ */
+public final class SpringAdjacency
+{
+    public final int[] offset;
+    public final int[] degree;
+
+    public final int[] spring;
+    public final double[] sign;
+
+    public SpringAdjacency(ParticleStore particles,SpringTable springs)
+    {
+        final int particleCount = particles.count;
+        final int springCount = springs.size();
+
+        offset = new int[ particleCount+1 ];
+        degree = new int[ particleCount ];
+        spring = new int[ springCount*2 ];
+        sign = new double[ springCount*2 ];
+
+        for ( int s = 0 ; s < springCount ; s++ )
+        {
+            offset[ springs.m1.get( s )+1 ]++;
+            offset[ springs.m2.get( s )+1 ]++;
+        }
+        for ( int p = 0 ; p < particleCount ; p++ ) {
+            offset[p+1] += offset[p];
+        }
+
+        // add springs in table order so forces are summed in a well-defined order
+        for ( int s = 0 ; s < springCount ; s++ )
+        {
+            append( springs.m1.get( s ) , s ,  1 );
+            append( springs.m2.get( s ) , s , -1 );
+        }
+    }
+
+    private void append(int particle,int springIndex,double springSign)
+    {
+        final int slot = offset[particle] + degree[particle]++;
+        spring[slot] = springIndex;
+        sign[slot] = springSign;
+    }
+
+    /**
+     * Updates spring indices after the spring table has been reordered, 
+     * the order of springs per particle is kept.
+     *
+     * @param newIndex new spring index by old spring index
+     */
+    public void renumber(int[] newIndex)
+    {
+        for ( int p = 0 ; p < degree.length ; p++ )
+        {
+            for ( int i = offset[p] , end = i + degree[p] ; i < end ; i++ ) {
+                spring[i] = newIndex[ spring[i] ];
+            }
+        }
+    }
+
+    /**
+     * Updates spring indices after springs have been removed with {@link SpringTable#compact(long[], int[])}, 
+     * the order of springs per particle is kept.
+     *
+     * @param newIndex new spring index by old spring index, <code>-1</code> for removed springs
+     */
+    public void compact(int[] newIndex)
+    {
+        for ( int p = 0 ; p < degree.length ; p++ )
+        {
+            int write = offset[p];
+            for ( int i = offset[p] , end = i + degree[p] ; i < end ; i++ ) 
+            {
+                final int index = newIndex[ spring[i] ];
+                if ( index != -1 ) 
+                {
+                    spring[write] = index;
+                    sign[write] = sign[i];
+                    write++;
+                }
+            }
+            degree[p] = write - offset[p];
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Greedy edge coloring of the spring graph.
+ *
+ * <p>Springs of the same color never share a particle, so all springs of one color
+ * can update particle positions in place and in parallel (see {@link SolverType#GAUSS_SEIDEL}).
+ * Removing springs never invalidates a coloring.</p>
+ */
+public final class SpringColoring 
+{
+    /**
+     * Max. number of colors, a spring never needs more than 
+     * <code>2*maxDegree-1</code> colors.
+     */
+    public static final int MAX_COLORS = 64;
+
+    private SpringColoring() {
+    }
+
+    /**
+     * Assigns each spring the lowest color not yet used by a spring attached 
+     * to either of its endpoints.
+     *
+     * @return number of colors used
+     */
+    public static int assignColors(SpringTable springs,int particleCount) 
+    {
+        // bit N is set if a spring attached to the particle has color N
+        final long[] usedColors = new long[ particleCount ];
+        int colorCount = 0;
+        for ( int s = 0 ; s < springs.size() ; s++ ) 
+        {
+            final int m1 = springs.m1.get( s );
+            final int m2 = springs.m2.get( s );
+            final long free = ~( usedColors[m1] | usedColors[m2] );
+            if ( free == 0 ) {
+                throw new IllegalStateException("Spring graph needs more than "+MAX_COLORS+" colors");
+            }
+            final int color = Long.numberOfTrailingZeros( free );
+            springs.color.set( s , (byte) color );
+            usedColors[m1] |= 1L << color;
+            usedColors[m2] |= 1L << color;
+            colorCount = Math.max( colorCount , color+1 );
+        }
+        return colorCount;
+    }
+
+    public static int getColorCount(SpringTable springs) 
+    {
+        int colorCount = 0;
+        for ( int s = 0 ; s < springs.size() ; s++ ) {
+            colorCount = Math.max( colorCount , springs.color.get( s ) + 1 );
+        }
+        return colorCount;
+    }
+}
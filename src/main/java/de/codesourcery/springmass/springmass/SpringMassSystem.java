@@ -15,16 +15,8 @@
  */
 package de.codesourcery.springmass.springmass;
 
-import java.util.ArrayList;
-import java.util.IdentityHashMap;
-import java.util.Iterator;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Random;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -33,290 +25,322 @@ import de.codesourcery.springmass.math.Vector4;
 public final class SpringMassSystem 
 {
     private final ReentrantLock lock = new ReentrantLock();	
-    private final ThreadPoolExecutor threadPool;
+    private final ExecutionEngine engine;
 
-    protected final Mass[][] massArray;
+    protected final ParticleStore particles;
 
-    public final List<Spring> springs = new ArrayList<>();
+    // explicit springs, null when using the grid stencil solver
+    protected final SpringTable springs;
+    private final SpringAdjacency adjacency;
+    private final SpringOrdering springOrdering;
+    // springs to remove, one bit per spring
+    private final long[] brokenSprings;
+    // scratch space for compacting springs
+    private final int[] newSpringIndex;
+    // whether springs are solved by moving particles instead of applying forces
+    private final boolean gaussSeidel;
+    private final boolean fusedStencil;
+
+    // grain sizes, only changed between steps
+    private volatile int batchSize;
+    private volatile int springBatchFactor;
+
+    // implicit springs, null when using the spring table solver
+    protected final GridStencil stencil;
 
-    private final List<Spring> removedSprings = new ArrayList<>();
-    
     private SimulationParameters params;
 
-    private SpringMassSystem copiedFrom;
-    
-    // mapping ORIGINAL mass -> copied mass
-    private IdentityHashMap<Mass,Mass> massMappings;
-    
     private Random random;
     private final WindSimulator windSimulator;
 
-    protected abstract class ParallelTaskCreator<T> 
-    {
-        public abstract Runnable createTask(Iterable<T> chunk,CountDownLatch taskFinishedLatch);
-    }    
-    
-    protected interface GridIterator extends Iterator<Mass> 
-    {
-    	/**
-    	 * Returns the mass right of the element returned by the last call to {@link #next()}. 
-    	 * @return mass or <code>null</code> if either <code>next()</code> has never been called
-    	 * or the element returned by <code>next()</code> was the right-most element in a row
-    	 */
-    	public Mass rightNeighbour();
-    	
-    	/**
-    	 * Returns the mass below the element returned by the last call to {@link #next()}. 
-    	 * @return mass or <code>null</code> if either <code>next()</code> has never been called
-    	 * or the element returned by <code>next()</code> is in the last row of a slice.
-    	 */    	
-    	public Mass bottomNeighbour();
-    }
-    
-	/**
-	 * Iterable view of a rectangular slice of the mass array.
-	 * 
-	 * <p>Used to distribute work across multiple CPU cores.</p>
-	 * 
-	 * @author tobias.gierke@code-sourcery.de
-	 */
-    protected final class Slice implements Iterable<Mass> {
-    	
-    	private final Mass[][] array = massArray;
-    	
-    	private final int xStart;
-    	private final int yStart;
-    	
-    	private final int xEnd;
-    	private final int yEnd;
-    	
-    	private final boolean fetchNeighbours;
-    	
-    	private final boolean isAtRightEdge; // used to determine whether it's safe to access the first column of the slice to the right of us 
-    	private final boolean isAtBottomEdge; // used to determine whether it's safe to access the first row of the slice to the below us
-    	
-    	/**
-    	 * 
-    	 * @param x0
-    	 * @param y0
-    	 * @param width
-    	 * @param height
-    	 * @param fetchNeighbours whether to also fetch the right and bottom neighbour of every element being traversed
-    	 */
-    	public Slice(int x0,int y0,int width,int height,boolean fetchNeighbours,boolean isAtRightEdge,boolean isAtBottomEdge) {
-    		this.xStart = x0;
-    		this.yStart = y0;
-    		this.xEnd = x0 + width;
-    		this.yEnd = y0 + height;
-    		this.fetchNeighbours = fetchNeighbours;
-    		this.isAtRightEdge = isAtRightEdge;
-    		this.isAtBottomEdge=isAtBottomEdge;
-    	}
-    	
-    	@Override
-    	public String toString() {
-    		return "Slice[ ("+xStart+","+yStart+")->("+xEnd+","+yEnd+") , fetchNeighbours="+fetchNeighbours+" ]";
-    	}
-    	
-    	public Iterator<Mass> iterator() 
-    	{
-    		if ( fetchNeighbours) 
-    		{
-        		return new GridIterator() 
-        		{
-        	    	private int x = xStart;
-        	    	private int y = yStart;
-        	    	
-        	    	private Mass rightNeighbour;
-        	    	private Mass bottomNeighbour;
-        	    	
-    				@Override
-    				public boolean hasNext() 
-    				{
-    					return x < xEnd && y < yEnd;
-    				}
-
-    				@Override
-    				public Mass next() 
-    				{
-    					final Mass result = array[x][y];
-    					if ( isAtRightEdge ) {
-    						rightNeighbour  = (x+1) < xEnd ? array[x+1][y] : null;
-    					} else {
-    						rightNeighbour  = array[x+1][y]; // TODO: hackish, another thread my manipulate this Mass instance concurrently...
-    					}
-    					
-    					if ( isAtBottomEdge ) {
-    						bottomNeighbour = (y+1) < yEnd ? array[x][y+1] : null;
-    					} else {
-    						bottomNeighbour = array[x][y+1];
-    					}
-    					
-    					x++;
-    					if ( x >= xEnd) {
-    						x = xStart;
-    						y++;
-    					} 
-    					return result;
-    				}
-
-    				@Override
-    				public void remove() { throw new UnsupportedOperationException(); }
-
-    				@Override
-    				public Mass rightNeighbour() { return rightNeighbour; }
-
-    				@Override
-    				public Mass bottomNeighbour() { return bottomNeighbour; }
-        		};    			
-    		}
-    		return new GridIterator() 
-    		{
-    	    	private int x = xStart;
-    	    	private int y = yStart;
-    	    	
-				@Override
-				public boolean hasNext() 
-				{
-					return x < xEnd && y < yEnd;
-				}
-
-				@Override
-				public Mass next() 
-				{
-					final Mass result = array[x++][y];
-					if ( x >= xEnd) {
-						x = xStart;
-						y++;
-					} 
-					return result;
-				}
-
-				@Override
-				public void remove() { throw new UnsupportedOperationException(); }
-
-				@Override
-				public Mass rightNeighbour() { throw new UnsupportedOperationException("Wrong iterator type"); }
-
-				@Override
-				public Mass bottomNeighbour() { throw new UnsupportedOperationException("Wrong iterator type"); }
-    		};
-    	}
-    }
-    
-    public SpringMassSystem createCopy() 
+    // per-step state read by the step program, 
+    // published to the worker threads by the execution engine
+    private boolean currentApplyWind;
+
+    private final Vector4 windForce = new Vector4();
+    private final Vector4 normalizedWindForce = new Vector4();
+
+    // created once and re-used so that step() does not allocate
+    private final StepProgram stepProgram;
+
+    // created by the first writeSnapshot() call, updated after each step.
+    // Holds the state of the last completed step, so snapshots can be written from it 
+    // without holding the system lock
+    private volatile DirtyTileTracker dirtyTiles;
+
+    private static final byte PHASE_SPRING_FORCES = 0;
+    private static final byte PHASE_REMOVE_BROKEN_SPRINGS = 1;
+    private static final byte PHASE_TEAR_SPRINGS = 2;
+    private static final byte PHASE_GATHER_FORCES = 3;
+    // gathering on the last iteration also adds wind forces
+    private static final byte PHASE_GATHER_FORCES_LAST = 4;
+    private static final byte PHASE_INTEGRATE = 5;
+    // integration on the last iteration also applies gravity
+    private static final byte PHASE_INTEGRATE_LAST = 6;
+    private static final byte PHASE_PROJECT_CONSTRAINTS = 7;
+    // tear springs, gather forces and integrate in a single pass
+    private static final byte PHASE_FUSED_STENCIL = 8;
+    // fused pass on the last iteration also applies gravity and wind
+    private static final byte PHASE_FUSED_STENCIL_LAST = 9;
+    private static final byte PHASE_SWAP_BUFFERS = 10;
+    // sets bits of springs exceeding the max. length, ranges are words of the bitmap 
+    private static final byte PHASE_MARK_BROKEN_SPRINGS = 11;
+
+    /**
+     * All phases of a single {@link SpringMassSystem#step()}.
+     * 
+     * <p>Particle phases process contiguous ranges of particle indices, depending on 
+     * the {@link GridLayout} a range covers a strip of grid columns or a compact block of the grid.</p>
+     * 
+     * <p>Phases are race-free: a phase only writes state owned by its own range 
+     * (spring forces, particle forces, tear bits or positions), and whenever it reads state 
+     * of neighbouring particles outside of its range, that state is not written by the 
+     * same phase. This is why wind forces, which need the positions of the right and 
+     * bottom neighbour, are added while gathering spring forces instead of during integration.
+     * Constraint projection writes both endpoints of a spring but only processes springs of a 
+     * single color at a time, which never share particles. The fused stencil pass reads 
+     * positions and link masks of neighbours from the current buffers while writing the 
+     * new state of its own range to the back buffers, which get swapped in a serial phase.</p>
+     */
+    private final class StepProgram implements PhaseProgram 
     {
-        lock();
-        try 
+        private final byte[] phases;
+        // spring color processed by PHASE_PROJECT_CONSTRAINTS phases
+        private final int[] colors;
+
+        public StepProgram() 
         {
-            final Mass[][] arrayCopy = new Mass[ params.getGridColumnCount() ][];
-            for ( int x = 0 ; x < params.getGridColumnCount() ; x++ ) 
-            {
-                arrayCopy[x] = new Mass[ params.getGridRowCount() ];
+            final boolean tearSprings = params.getMaxSpringLength() > 0;
+            final int colorCount = gaussSeidel ? springOrdering.getColorCount() : 0;
+
+            int phasesPerIteration = 2 + ( tearSprings ? 1 : 0 );
+            if ( fusedStencil ) {
+                phasesPerIteration = 2;
+            } else if ( gaussSeidel ) {
+                phasesPerIteration += colorCount + ( tearSprings ? 1 : 0 );
+            } else if ( stencil == null ) {
+                phasesPerIteration += 1 + ( tearSprings ? 1 : 0 );
             }
+            phases = new byte[ params.getIterationCount() * phasesPerIteration ];
+            colors = new int[ phases.length ];
 
-            // clone particles
-            final IdentityHashMap<Mass,Mass> massMappings = new IdentityHashMap<>();
-            for ( int x = 0 ; x < params.getGridColumnCount() ; x++ ) 
+            int index = 0;
+            for ( int count = params.getIterationCount() ; count > 0 ; count--) 
             {
-                for ( int y = 0 ; y < params.getGridRowCount() ; y++ ) 
-                {        
-                    final Mass mOrig = massArray[x][y];
-                    final Mass mCopy = mOrig.createCopyWithoutSprings();
-                    arrayCopy[x][y]=mCopy;
-                    massMappings.put( mOrig , mCopy );
+                if ( fusedStencil ) 
+                {
+                    phases[index++] = count == 1 ? PHASE_FUSED_STENCIL_LAST : PHASE_FUSED_STENCIL;
+                    phases[index++] = PHASE_SWAP_BUFFERS;
+                    continue;
+                }
+                if ( gaussSeidel ) 
+                {
+                    // no spring forces, only clear forces (and add wind)
+                    phases[index++] = count == 1 ? PHASE_GATHER_FORCES_LAST : PHASE_GATHER_FORCES;
+                    phases[index++] = count == 1 ? PHASE_INTEGRATE_LAST : PHASE_INTEGRATE;
+                    // move particles to satisfy springs, one color at a time
+                    for ( int color = 0 ; color < colorCount ; color++ ) 
+                    {
+                        colors[index] = color;
+                        phases[index++] = PHASE_PROJECT_CONSTRAINTS;
+                    }
+                    if ( tearSprings ) 
+                    {
+                        phases[index++] = PHASE_MARK_BROKEN_SPRINGS;
+                        phases[index++] = PHASE_REMOVE_BROKEN_SPRINGS;
+                    }
+                    continue;
                 }
+
+                if ( stencil != null ) 
+                {
+                    // remove springs exceeding the max. length
+                    if ( tearSprings ) {
+                        phases[index++] = PHASE_TEAR_SPRINGS;
+                    }
+                } 
+                else 
+                {
+                    // solve constraints
+                    phases[index++] = PHASE_SPRING_FORCES;
+                    // remove springs exceeding the max. length
+                    if ( tearSprings ) 
+                    {
+                        phases[index++] = PHASE_MARK_BROKEN_SPRINGS;
+                        phases[index++] = PHASE_REMOVE_BROKEN_SPRINGS;
+                    }
+                }
+                // sum up spring forces per particle
+                phases[index++] = count == 1 ? PHASE_GATHER_FORCES_LAST : PHASE_GATHER_FORCES;
+                // apply spring forces to particles
+                phases[index++] = count == 1 ? PHASE_INTEGRATE_LAST : PHASE_INTEGRATE;
             }
+        }
 
-            final SpringMassSystem copy = new SpringMassSystem( this.params , arrayCopy , random  );
-            copy.windSimulator.set( this.windSimulator );
-            copy.massMappings = massMappings;
-            copy.copiedFrom = this;
+        @Override
+        public int getPhaseCount() {
+            return phases.length;
+        }
 
-            // add springs
-            for ( Spring spring : springs ) 
+        @Override
+        public int getSize(int phase) 
+        {
+            switch( phases[phase] ) 
             {
-                Mass copy1 = massMappings.get( spring.m1 );
-                Mass copy2 = massMappings.get( spring.m2 );
-                copy.addSpring( spring.createCopy( copy1 , copy2 ) );
+                case PHASE_SPRING_FORCES:
+                    return springs.size();
+                case PHASE_PROJECT_CONSTRAINTS:
+                    return springOrdering.getColorEnd( colors[phase] ) - springOrdering.getColorStart( colors[phase] );
+                case PHASE_MARK_BROKEN_SPRINGS:
+                    return ( springs.size() + 63 ) >>> 6;
+                case PHASE_REMOVE_BROKEN_SPRINGS:
+                case PHASE_SWAP_BUFFERS:
+                    return SERIAL;
+                default:
+                    return particles.count;
             }
-            
-            return copy;
-        } 
-        finally {
-            unlock();
         }
-    }
 
-    public void updateFromOriginal() 
-    {
-        lock();
-        try 
+        @Override
+        public int getGrainSize(int phase) 
         {
-            final List<Spring> removed;            
-            copiedFrom.lock();
-            try 
+            final int batchSize = SpringMassSystem.this.batchSize;
+            switch( phases[phase] ) 
             {
-                // copy positions and flags
-                for ( int x = 0 ; x < params.getGridColumnCount() ; x++ ) 
-                {
-                    for ( int y = 0 ; y < params.getGridRowCount() ; y++ ) 
-                    {
-                        final Mass original = copiedFrom.massArray[x][y];                
-                        final Mass clone = this.massArray[x][y];
-                        clone.copyPositionAndFlagsFrom( original );
-                    }
-                }  
-                
-                // get all springs that were removed since the last call
-                // to updateFromOriginal() and immediately clear the list
-                // so we don't process them again
-                removed = new ArrayList<>( copiedFrom.removedSprings );
-                copiedFrom.removedSprings.clear();                
-            } 
-            finally {
-                copiedFrom.unlock();
+                case PHASE_SPRING_FORCES:
+                case PHASE_PROJECT_CONSTRAINTS:
+                    return batchSize*springBatchFactor;
+                case PHASE_MARK_BROKEN_SPRINGS:
+                    return Math.max( 1 , ( batchSize*springBatchFactor ) >>> 6 );
+                default:
+                    return batchSize;
             }
-            
-            // remove all springs that were removed from the original            
-            for ( Spring removedSpring : removed ) 
+        }
+
+        @Override
+        public void run(int phase,int start,int end) 
+        {
+            switch( phases[phase] ) 
             {
-                Mass m1 = massMappings.get( removedSpring.m1 );
-                Mass m2 = massMappings.get( removedSpring.m2 );
-                final Spring copy = removedSpring.createCopy( m1 ,m2 );
-                copy.remove();
-                springs.remove( copy );
+                case PHASE_SPRING_FORCES:
+                    ArrayKernels.springForces( springs , particles , start , end );
+                    break;
+                case PHASE_PROJECT_CONSTRAINTS:
+                    final int offset = springOrdering.getColorStart( colors[phase] );
+                    springs.projectConstraints( offset + start , offset + end , particles );
+                    break;
+                case PHASE_MARK_BROKEN_SPRINGS:
+                    markBrokenSprings( start , end );
+                    break;
+                case PHASE_REMOVE_BROKEN_SPRINGS:
+                    removeBrokenSprings();
+                    break;
+                case PHASE_TEAR_SPRINGS:
+                    stencil.tearSprings( start , end , params.getMaxSpringLength()*params.getMaxSpringLength() );
+                    break;
+                case PHASE_GATHER_FORCES:
+                case PHASE_GATHER_FORCES_LAST:
+                    if ( stencil != null ) {
+                        stencil.gatherForces( start , end );
+                    } else if ( gaussSeidel ) {
+                        clearForces( start , end );
+                    } else {
+                        ArrayKernels.gatherSpringForces( adjacency , springs , particles , start , end );
+                    }
+                    // positions are read-only during this phase so it's safe to look at neighbours from other ranges
+                    if ( phases[phase] == PHASE_GATHER_FORCES_LAST && currentApplyWind ) {
+                        applyWindForces( start , end );
+                    }
+                    break;
+                case PHASE_INTEGRATE:
+                    applyForces( start , end , 0 ); // only apply gravity once
+                    break;
+                case PHASE_FUSED_STENCIL:
+                    fusedStencilPass( start , end , 0 , false );
+                    break;
+                case PHASE_FUSED_STENCIL_LAST:
+                    fusedStencilPass( start , end , params.getGravity() , currentApplyWind );
+                    break;
+                case PHASE_SWAP_BUFFERS:
+                    particles.swapPositionBuffers();
+                    stencil.swapLinkBuffers();
+                    break;
+                default:
+                    applyForces( start , end , params.getGravity() );
             }
-        } finally {
-            unlock();
         }
     }
+    
+    public SpringMassSystem(SimulationParameters params,ParticleStore particles,SpringTable springs,Random random) 
+    {
+        // adjacency needs to be built before renumbering so 
+        // the per-particle order of springs stays the order they were added in
+        this( params , particles , springs , new SpringAdjacency( particles , springs ) , null , random );
+        springOrdering.apply( springs , adjacency );
+    }
 
-    public SpringMassSystem(SimulationParameters params,Mass[][] massArray,Random random) 
+    public SpringMassSystem(SimulationParameters params,ParticleStore particles,GridStencil stencil,Random random) 
+    {
+        this( params , particles , null , null , stencil , random );
+    }
+
+    private SpringMassSystem(SimulationParameters params,ParticleStore particles,SpringTable springs,SpringAdjacency adjacency,GridStencil stencil,Random random) 
     {
     	this.random = random;
         this.params = params;
         
         this.windSimulator = new WindSimulator(random, params.getWindParameters() );
         
-        this.massArray = massArray;
+        this.particles = particles;
+        this.springs = springs;
+        this.adjacency = adjacency;
+        this.gaussSeidel = params.getSolverType() == SolverType.GAUSS_SEIDEL && springs != null;
+        this.fusedStencil = params.getSolverType() == SolverType.FUSED_GRID_STENCIL && stencil != null;
+        if ( gaussSeidel ) {
+            this.springOrdering = new SpringOrdering( particles.count , springs.capacity , SpringColoring.getColorCount( springs ) );
+        } else {
+            this.springOrdering = springs != null ? new SpringOrdering( particles.count , springs.capacity ) : null;
+        }
+        this.brokenSprings = springs != null ? new long[ ( springs.capacity + 63 ) >>> 6 ] : null;
+        this.newSpringIndex = springs != null ? new int[ springs.capacity ] : null;
+        this.stencil = stencil;
         
-        int poolSize = Runtime.getRuntime().availableProcessors()-2;
-        if ( poolSize <= 0 ) {
-            poolSize+=2;
+        this.batchSize = params.getForkJoinBatchSize();
+        this.springBatchFactor = params.getSpringBatchFactor();
+        this.engine = params.getExecutionEngine().createEngine( params.getThreadCount() );
+        this.stepProgram = new StepProgram();
+    }
+
+    /**
+     * Changes the grain sizes used to split up work, takes effect on the next {@link #step()}.
+     * 
+     * <p>Partitioning does not change simulation results.</p>
+     * 
+     * @param batchSize grain size of particle phases
+     * @param springBatchFactor grain size of spring phases, as a multiple of <code>batchSize</code>
+     */
+    public void setPartitioning(int batchSize,int springBatchFactor) 
+    {
+        if ( batchSize < 1 || springBatchFactor < 1 ) {
+            throw new IllegalArgumentException("Batch size and spring batch factor must be positive");
         }
-        final BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<>(500);
-        final ThreadFactory threadFactory = new ThreadFactory() {
+        this.batchSize = batchSize;
+        this.springBatchFactor = springBatchFactor;
+    }
 
-            @Override
-            public Thread newThread(Runnable r)
-            {
-                final Thread t = new Thread(r,"calculation-thread");
-                t.setDaemon(true);
-                return t;
-            }
-        };
-        threadPool = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS, workQueue, threadFactory, new ThreadPoolExecutor.CallerRunsPolicy() );
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getSpringBatchFactor() {
+        return springBatchFactor;
+    }
+
+    /**
+     * @return number of threads the execution engine distributes work on
+     */
+    public int getThreadCount() {
+        return engine.getThreadCount();
     }
 
     public void destroy() throws InterruptedException 
@@ -324,8 +348,7 @@ public final class SpringMassSystem
         lock();
         try 
         {
-            threadPool.shutdown();
-            threadPool.awaitTermination(60,TimeUnit.SECONDS );
+            engine.shutdown();
         } 
         finally 
         {
@@ -333,37 +356,187 @@ public final class SpringMassSystem
         }
     }
 
-    public Mass[][] getMassArray() 
+    public ParticleStore getParticles() 
     {
-        return massArray;
+        return particles;
+    }
+    
+    public Mass getMass(int index) {
+        return new Mass( particles , index );
+    }
+    
+    public Mass getMass(int x,int y) {
+        return new Mass( particles , particles.index( x , y ) );
     }
 
     public Mass getNearestMass(Vector4 pos,double maxDistanceSquared) {
 
-        Mass best = null;
+        int best = -1;
         double closestDistance = Double.MAX_VALUE;
-        for ( int y = 0 ; y < params.getGridRowCount() ; y++ ) 
+        for ( int i = 0 ; i < particles.count ; i++ ) 
         {
-        	for ( int x = 0 ; x < params.getGridColumnCount() ; x++ ) {
-        		final Mass m = massArray[x][y];
-                double distance = m.squaredDistanceTo( pos ); 
-                if ( best == null || distance < closestDistance ) 
-                {
-                    best = m;
-                    closestDistance = distance; 
-                }        		
-        	}
+            final double distance = particles.squaredDistanceTo( i , pos ); 
+            if ( best == -1 || distance < closestDistance ) 
+            {
+                best = i;
+                closestDistance = distance; 
+            }        		
         }
-        return closestDistance > maxDistanceSquared ? null : best;
+        return closestDistance > maxDistanceSquared ? null : getMass( best );
     }
 
-    public List<Spring> getSprings() {
+    /**
+     * Returns the spring table.
+     * 
+     * @return spring table or <code>null</code> if this system uses the grid stencil solver
+     * @see #visitSprings(SpringVisitor)
+     */
+    public SpringTable getSprings() {
         return springs;
     }
 
-    public void addSpring(Spring s) {
-        s.m1.addSpring( s );
-        springs.add( s );
+    /**
+     * Returns the implicit grid topology.
+     * 
+     * @return stencil or <code>null</code> if this system uses the spring table solver
+     */
+    public GridStencil getStencil() {
+        return stencil;
+    }
+
+    public int getSpringCount() {
+        return stencil != null ? stencil.getSpringCount() : springs.size();
+    }
+
+    public interface SpringVisitor 
+    {
+        public void visit(int m1,int m2,byte type);
+    }
+
+    /**
+     * Invokes a visitor for each intact spring, regardless of the solver being used.
+     */
+    public void visitSprings(SpringVisitor visitor) 
+    {
+        if ( stencil != null ) 
+        {
+            for ( int mass = 0 ; mass < particles.count ; mass++ ) 
+            {
+                for ( int link = 0 ; link < GridStencil.LINK_COUNT ; link++ ) 
+                {
+                    if ( stencil.isIntact( mass , link ) ) {
+                        visitor.visit( mass , stencil.getNeighbour( mass , link ) , GridStencil.getType( link ) );
+                    }
+                }
+            }
+            return;
+        }
+        for ( int s = 0 ; s < springs.size() ; s++ ) {
+            visitor.visit( springs.m1.get( s ) , springs.m2.get( s ) , springs.type.get( s ) );
+        }
+    }
+
+    /**
+     * Creates an empty snapshot matching the size of this system.
+     * 
+     * @see #writeSnapshot(RenderSnapshot)
+     */
+    public RenderSnapshot createSnapshot() {
+        return new RenderSnapshot( particles.columns , particles.rows );
+    }
+
+    /**
+     * Brings a snapshot up to date with the last completed step, does not allocate after the first call.
+     * 
+     * <p>Only tiles of the grid that changed since the snapshot was last written are copied, 
+     * positions lag behind the simulation by at most {@link SimulationParameters#getSnapshotEpsilon()}.
+     * Springs are only copied if some were torn.</p>
+     * 
+     * <p>Apart from the first call, this method does not acquire the system lock, 
+     * so it may run on another thread while the next {@link #step()} is computed and 
+     * only waits for the step to update the changed tiles.</p>
+     * 
+     * @see DirtyTileTracker
+     */
+    public void writeSnapshot(RenderSnapshot snapshot) 
+    {
+        final ParticleStore p = particles;
+        if ( snapshot.columns != p.columns || snapshot.rows != p.rows ) {
+            throw new IllegalArgumentException("Snapshot size mismatch: "+snapshot.columns+"x"+snapshot.rows+" <-> "+p.columns+"x"+p.rows);
+        }
+        DirtyTileTracker tracker = dirtyTiles;
+        if ( tracker == null ) 
+        {
+            lock();
+            try 
+            {
+                if ( dirtyTiles == null ) 
+                {
+                    tracker = new DirtyTileTracker( particles , params.getSnapshotEpsilon() );
+                    writeLinks( tracker );
+                    dirtyTiles = tracker;
+                }
+                tracker = dirtyTiles;
+            } 
+            finally {
+                unlock();
+            }
+        }
+        synchronized( tracker ) {
+            tracker.writeTo( snapshot );
+        }
+    }
+
+    // invoked with the system lock held
+    private void writeLinks(DirtyTileTracker tracker) 
+    {
+        final ParticleStore p = particles;
+        final byte[] links = tracker.links;
+        for ( int row = 0 ; row < p.rows ; row++ ) 
+        {
+            for ( int column = 0 ; column < p.columns ; column++ ) {
+                links[ row * p.columns + column ] = stencil != null ? stencil.getLinkMask( p.index( column , row ) ) : 0;
+            }
+        }
+
+        if ( stencil != null ) {
+            tracker.linksChanged( stencil.getSpringCount() );
+            return;
+        }
+
+        final int springCount = springs.size();
+        for ( int s = 0 ; s < springCount ; s++ ) {
+            updateLink( links , s , true );
+        }
+        tracker.linksChanged( springCount );
+    }
+
+    /**
+     * Sets or clears the link bit of a spring in a link mask array (see {@link RenderSnapshot#links}), 
+     * a spring belongs to the link of the endpoint it starts from.
+     */
+    private void updateLink(byte[] links,int spring,boolean intact) 
+    {
+        final ParticleStore p = particles;
+        int from = springs.m1.get( spring );
+        int to = springs.m2.get( spring );
+        int link = GridStencil.findLink( p.column( to ) - p.column( from ) , p.row( to ) - p.row( from ) );
+        if ( link == -1 ) 
+        {
+            final int tmp = from;
+            from = to;
+            to = tmp;
+            link = GridStencil.findLink( p.column( to ) - p.column( from ) , p.row( to ) - p.row( from ) );
+            if ( link == -1 ) {
+                throw new IllegalStateException("Spring "+from+" <-> "+to+" does not connect grid neighbours");
+            }
+        }
+        final int index = p.row( from ) * p.columns + p.column( from );
+        if ( intact ) {
+            links[ index ] |= 1 << link;
+        } else {
+            links[ index ] &= ~( 1 << link );
+        }
     }
 
     public void lock() 
@@ -385,286 +558,206 @@ public final class SpringMassSystem
 
     public void step() 
     {
-        final Vector4 gravity = new Vector4(0,1,0).multiply(params.getGravity());
-        final Vector4 zeroGravity = new Vector4(0,0,0);
-        
         lock();
         try 
         {
         	windSimulator.step();
         	
-            for ( int count = params.getIterationCount() ; count > 0 ; count--) 
-            {
-                // solve constraints
-                solveConstraints();
-
-                // remove springs exceeding the max. length
-                removeBrokenSprings(springs);
-
-                // apply spring forces to particles
-                if ( count == 1 ) 
-                {
-                   	applyForces(gravity , params.getWindParameters().isEnabled() );
-                } else {
-                	applyForces( zeroGravity , false ); // only apply gravity once
-                }
-            }        	
+        	final boolean applyWind = params.getWindParameters().isEnabled();
+        	if ( applyWind ) 
+        	{
+        	    windSimulator.getCurrentWindVector( windForce );
+        	    normalizedWindForce.set( windForce );
+        	    normalizedWindForce.normalizeInPlace();
+        	}
+        	
+            currentApplyWind = applyWind;
+            engine.run( stepProgram );
+            updateDirtyTiles();
         } 
         finally {
             unlock();
         }
     }
-    
-    private Vector4 calculateWindForce(Mass mass,Mass rightNeighbour,Mass bottomNeighbour, Vector4 normalizedWindForce,Vector4 windForce) 
-    {
-    	final Vector4 v1 = new Vector4( rightNeighbour.currentPosition );
-    	v1.minusInPlace( mass.currentPosition );
-    	
-    	final Vector4 v2 = new Vector4( bottomNeighbour.currentPosition );
-    	v2.minusInPlace( mass.currentPosition );    	
-    	
-    	// calculate vector perpendicular to plane
-    	final Vector4 crossProduct = v1.crossProduct( v2 );
-    	crossProduct.normalizeInPlace();
-    	
-    	// calculate angle between wind direction and surface normal
-        final double angle = Math.abs( normalizedWindForce.dotProduct( crossProduct ) );
-        
-        // scale wind force by angle 
-        final Vector4 sumForces = new Vector4( windForce );
-        sumForces.multiply( angle );
-        return sumForces; 
-	}
 
-	private void removeBrokenSprings(List<Spring> springs) 
+    /**
+     * Makes changes done outside of {@link #step()} (moving, fixing or selecting particles) 
+     * visible to {@link #writeSnapshot(RenderSnapshot)}.
+     */
+    public void updateSnapshotState() 
     {
-        double maxSpringLengthSquared = params.getMaxSpringLength();
-        if ( maxSpringLengthSquared <= 0 ) {
-            return;
+        lock();
+        try {
+            updateDirtyTiles();
+        } finally {
+            unlock();
         }
+    }
 
-        maxSpringLengthSquared *= maxSpringLengthSquared;
-        for ( Iterator<Spring> it = springs.iterator() ; it.hasNext() ; )
+    // invoked with the system lock held
+    private void updateDirtyTiles() 
+    {
+        final DirtyTileTracker tracker = dirtyTiles;
+        if ( tracker != null ) 
         {
-            final Spring s = it.next();
-            if ( s.lengthSquared() > maxSpringLengthSquared && !(s.m1.isSelected() || s.m2.isSelected() ) )
+            synchronized( tracker ) 
             {
-                it.remove();
-                s.remove();
-                removedSprings.add( s );
+                tracker.update( engine , batchSize );
+                // torn springs of the spring table are cleared by removeBrokenSprings()
+                if ( stencil != null && tracker.getSpringCount() != stencil.getSpringCount() ) {
+                    writeLinks( tracker );
+                }
             }
         }
     }
     
-    private void solveConstraints() 
+    private double calculateWindForceScale(int mass,int rightNeighbour,int bottomNeighbour) 
     {
-        final ParallelTaskCreator<Spring> creator = new ParallelTaskCreator<Spring>() {
-
-            @Override
-            public Runnable createTask(final Iterable<Spring> chunk,final CountDownLatch taskFinishedLatch)
-            {
-                return new Runnable() {
-
-                    @Override
-                    public void run()
-                    {
-                        try 
-                        {
-                            for ( Spring s : chunk ) 
-                            {
-                                s.calcForce();
-                            }
-                        } 
-                        finally 
-                        {
-                            taskFinishedLatch.countDown();
-                        }
-                    }
-                };
-            }
-        };
-
-        forEachParallel( springs,  creator ,  params.getForkJoinBatchSize()*5 );        
-    }    
+        final ParticleStore p = particles;
+        
+        final double x1 = p.posX.get( rightNeighbour ) - p.posX.get( mass );
+        final double y1 = p.posY.get( rightNeighbour ) - p.posY.get( mass );
+        final double z1 = p.posZ.get( rightNeighbour ) - p.posZ.get( mass );
+        
+        final double x2 = p.posX.get( bottomNeighbour ) - p.posX.get( mass );
+        final double y2 = p.posY.get( bottomNeighbour ) - p.posY.get( mass );
+        final double z2 = p.posZ.get( bottomNeighbour ) - p.posZ.get( mass );
+    	
+    	// calculate vector perpendicular to plane
+        double nx = y1 * z2 - y2 * z1;
+        double ny = z1 * x2 - z2 * x1;
+        double nz = x1 * y2 - x2 * y1;
+        final double len = Math.sqrt( nx*nx + ny*ny + nz*nz );
+        if ( len != 0 && len != 1 ) 
+        {
+            nx /= len;
+            ny /= len;
+            nz /= len;
+        }
+    	
+    	// angle between wind direction and surface normal, used to scale the wind force
+        return Math.abs( normalizedWindForce.x * nx + normalizedWindForce.y * ny + normalizedWindForce.z * nz );
+	}
 
-    private void applyForces(final Vector4 gravity,final boolean applyWindForces) 
+    /**
+     * Sets the bits of all springs exceeding the max. length in words <code>startWord...endWord-1</code> 
+     * of {@link #brokenSprings}.
+     */
+    private void markBrokenSprings(int startWord,int endWord) 
     {
-        final ParallelTaskCreator<Mass> creator = new ParallelTaskCreator<Mass>() {
-
-            @Override
-            public Runnable createTask(final Iterable<Mass> chunk,final CountDownLatch taskFinishedLatch)
+        final double maxSpringLength = params.getMaxSpringLength();
+        final double maxSpringLengthSquared = maxSpringLength * maxSpringLength;
+        final int springCount = springs.size();
+        for ( int word = startWord ; word < endWord ; word++ ) 
+        {
+            long bits = 0;
+            for ( int s = word << 6 , end = Math.min( s + 64 , springCount ) ; s < end ; s++ )
             {
-                return new Runnable() {
-
-                    @Override
-                    public void run()
-                    {
-                        try {
-                            applyForces( chunk , gravity , applyWindForces );
-                        } finally {
-                            taskFinishedLatch.countDown();
-                        }
-                    }
-                };
+                if ( springs.lengthSquared( s , particles ) > maxSpringLengthSquared && 
+                     !( particles.hasFlags( springs.m1.get( s ) , Mass.FLAG_SELECTED ) || particles.hasFlags( springs.m2.get( s ) , Mass.FLAG_SELECTED ) ) )
+                {
+                    bits |= 1L << s;
+                }
             }
-        };
-
-        forEachParallel( massArray ,  creator ,  params.getForkJoinBatchSize() , applyWindForces );
+            brokenSprings[word] = bits;
+        }
     }
 
-    private void applyForces(final Iterable<Mass> masses,final Vector4 gravity,final boolean applyWindForces) 
+    /**
+     * Removes all springs marked in {@link #brokenSprings} in a single pass
+     * and clears the bitmap.
+     * 
+     * <p>The links of the removed springs are cleared in the {@link DirtyTileTracker} (if any), 
+     * so propagating tears to snapshots costs time proportional to the number of removed springs.</p>
+     */
+	private void removeBrokenSprings() 
     {
-        final double deltaTSquared = params.getIntegrationTimeStep();
+        final int wordCount = ( springs.size() + 63 ) >>> 6;
+        int brokenCount = 0;
+        for ( int word = 0 ; word < wordCount ; word++ ) {
+            brokenCount += Long.bitCount( brokenSprings[ word ] );
+        }
+        if ( brokenCount == 0 ) {
+            return;
+        }
 
-        final Vector4 windForce = new Vector4();
-        windSimulator.getCurrentWindVector( windForce );
-        
-        final Vector4 normalizedWindForce = new Vector4( windForce );
-        normalizedWindForce.normalizeInPlace();
-        
-        final double maxY = params.getYResolution()*0.98;
-        final GridIterator it = (GridIterator) masses.iterator();
-        while ( it.hasNext() )
+        final DirtyTileTracker tracker = dirtyTiles;
+        if ( tracker != null ) 
         {
-        	final Mass mass = it.next();
-            if ( mass.hasFlags( Mass.FLAG_FIXED | Mass.FLAG_SELECTED ) ) {
-                continue;
-            }
-
-            Vector4 sumForces = new Vector4();
-            for ( Spring s : mass.springs ) 
+            synchronized( tracker ) 
             {
-                if ( s.m1 == mass ) {
-                    sumForces.plusInPlace( s.force );
-                } else {
-                    sumForces.minusInPlace( s.force );
+                for ( int word = 0 ; word < wordCount ; word++ ) 
+                {
+                    for ( long bits = brokenSprings[ word ] ; bits != 0 ; bits &= bits - 1 ) {
+                        updateLink( tracker.links , ( word << 6 ) + Long.numberOfTrailingZeros( bits ) , false );
+                    }
                 }
+                tracker.linksChanged( springs.size() - brokenCount );
             }
-            
-            if ( applyWindForces ) 
-            {
-            	final Mass rightNeighbour = it.rightNeighbour();
-				final Mass bottomNeighbour = it.bottomNeighbour();
-				if ( rightNeighbour != null & bottomNeighbour != null ) {
-					sumForces.plusInPlace( calculateWindForce(mass, rightNeighbour , bottomNeighbour , normalizedWindForce, windForce) );
-				}
-            }
-
-            // apply gravity
-            sumForces.plusInPlace( gravity );
-
-            final Vector4 tmp = new Vector4(mass.currentPosition);
-
-            final Vector4 posDelta = mass.currentPosition.minus(mass.previousPosition);
-
-            Vector4 dampening = posDelta.multiply( params.getSpringDampening() );
-            sumForces.minusInPlace( dampening );
-
-            sumForces.multiplyInPlace( 1.0 / (mass.mass*deltaTSquared) );
-            posDelta.plusInPlace( sumForces );
-
-            posDelta.clampMagnitudeInPlace( params.getMaxParticleSpeed() );
-            mass.currentPosition.plusInPlace( posDelta );
-
-            if ( mass.currentPosition.y > maxY) {
-                mass.currentPosition.y = maxY;
-            }
-            mass.previousPosition = tmp;
         }
-    }    
 
-    private <T> void forEachParallel(List<T> data,ParallelTaskCreator<T> taskCreator,int chunkSize) {
+        // remaining springs keep their order so there is no need to sort them again
+        springs.compact( brokenSprings , newSpringIndex );
+        adjacency.compact( newSpringIndex );
+        springOrdering.updateColorRanges( springs );
+        Arrays.fill( brokenSprings , 0 , wordCount , 0 );
+    }
+    
+    private void applyForces(int start,int end,double gravity) 
+    {
+        ArrayKernels.integrate( particles , start , end , false , gravity , params.getSpringDampening() , 
+                params.getIntegrationTimeStep() , params.getMaxParticleSpeed() , params.getYResolution()*0.98 );
+    }
 
-        final List<List<T>> chunks = splitList( data , chunkSize );
-        final CountDownLatch latch = new CountDownLatch(chunks.size());
-        for ( List<T> chunk : chunks )
-        {
-            threadPool.submit( taskCreator.createTask( chunk , latch ) );
-        }
+    /**
+     * Tears springs, gathers forces and integrates particles <code>start...end-1</code>
+     * while the range is still in cache. 
+     * 
+     * <p>New positions are written to the previous position columns, 
+     * see {@link ParticleStore#swapPositionBuffers()}.</p>
+     */
+    private void fusedStencilPass(int start,int end,double gravity,boolean applyWind) 
+    {
+        final double maxSpringLength = params.getMaxSpringLength();
+        stencil.tearAndGatherForces( start , end , maxSpringLength > 0 ? maxSpringLength*maxSpringLength : 0 );
 
-        try {
-        	latch.await();
-        } catch(Exception e) {
-        	e.printStackTrace();
+        // positions are read-only during this phase so it's safe to look at neighbours from other ranges
+        if ( applyWind ) {
+            applyWindForces( start , end );
         }
+
+        ArrayKernels.integrate( particles , start , end , true , gravity , params.getSpringDampening() , 
+                params.getIntegrationTimeStep() , params.getMaxParticleSpeed() , params.getYResolution()*0.98 );
     }
-    
-    private void forEachParallel(Mass[][] data,ParallelTaskCreator<Mass> taskCreator,int chunkSize,boolean iteratorNeedsNeighbours) 
+
+    private void clearForces(int start,int end) 
     {
-        final List<Slice> slices = splitArray( data , chunkSize , iteratorNeedsNeighbours );
-        final CountDownLatch latch = new CountDownLatch( slices.size() );
-        
-        for ( Slice slice : slices )
+        final ParticleStore p = particles;
+        for ( int mass = start ; mass < end ; mass++ ) 
         {
-            threadPool.submit( taskCreator.createTask( slice , latch ) );
+            p.forceX.set( mass , 0 );
+            p.forceY.set( mass , 0 );
+            p.forceZ.set( mass , 0 );
         }
+    }
 
-        try {
-        	latch.await();
-        } catch(Exception e) {
-        	e.printStackTrace();
-        }
-    }    
-    
-    private <T> List<Slice> splitArray(final Mass[][] data,final int chunkSize,boolean iteratorNeedsNeighbours) 
-    {
-    	int horizSize = (int) Math.sqrt( chunkSize );
-    	if ( horizSize < 1 ) {
-    		horizSize = 1;
-    	}
-    	
-    	final int vertSize = horizSize;
-    	
-    	final int horizSlices = params.getGridColumnCount() / horizSize;
-    	final int vertSlices = params.getGridRowCount() / vertSize;
-    	
-    	final int horizRest = params.getGridColumnCount() - horizSlices*horizSize;
-    	final int vertRest = params.getGridRowCount() - vertSlices*vertSize;
-    			
-    	final List<Slice> result = new ArrayList<>();
-    	
-    	final int xEnd = horizSlices*horizSize;
-    	final int yEnd = vertSlices*vertSize;
-    	
-		int x,y;
-    	for ( y = 0; y < yEnd ; y+= vertSize ) 
-    	{    	
-    		final boolean isAtBottomEdge = (y+vertSize) >= yEnd;
-	    	for ( x = 0 ; x < xEnd ; x+= horizSize ) 
-	    	{
-	    		boolean isAtRightEdge = (x+horizRest) >= xEnd;
-	    		result.add( new Slice( x , y , horizSize , vertSize , iteratorNeedsNeighbours , isAtRightEdge , isAtBottomEdge ) );
-	    	}
-	    	if ( horizRest > 0 ) {
-	    		result.add( new Slice( x , y , horizRest , vertSize , iteratorNeedsNeighbours , true , isAtBottomEdge  ) );
-	    	}
-    	}
-    	if ( vertRest > 0 ) 
-    	{
-	    	for ( x = 0 ; x < xEnd ; x+= horizSize ) 
-	    	{
-	    		boolean isAtRightEdge = (x+horizRest) >= xEnd;
-	    		result.add( new Slice( x , y , horizSize , vertRest , iteratorNeedsNeighbours , isAtRightEdge , true ) );
-	    	}    
-	    	if ( horizRest > 0 ) {
-	    		result.add( new Slice( x , y , horizRest , vertRest , iteratorNeedsNeighbours , true , true ) );
-	    	}	    	
-    	}
-    	return result;
-    }
-
-    private <T> List<List<T>> splitList(final List<T> list,final int chunkSize) 
+    private void applyWindForces(int start,int end) 
     {
-        final List<List<T>> result = new ArrayList<List<T>>();
-        final int listSize = list.size();
-
-        for ( int currentIndex = 0 ; currentIndex < listSize ; currentIndex += chunkSize ) {
-            int end=currentIndex+chunkSize;
-            if ( end > listSize ) {
-                end = listSize;
+        final ParticleStore p = particles;
+        for ( int mass = start ; mass < end ; mass++ ) 
+        {
+            if ( p.hasFlags( mass , Mass.FLAG_FIXED | Mass.FLAG_SELECTED ) ) {
+                continue;
+            }
+            final int x = p.column( mass );
+            final int y = p.row( mass );
+            if ( (x+1) < p.columns && (y+1) < p.rows ) 
+            {
+                final double scale = calculateWindForceScale( mass, p.index( x+1 , y ) , p.index( x , y+1 ) );
+                p.forceX.set( mass , p.forceX.get( mass ) + windForce.x * scale );
+                p.forceY.set( mass , p.forceY.get( mass ) + windForce.y * scale );
+                p.forceZ.set( mass , p.forceZ.get( mass ) + windForce.z * scale );
             }
-            result.add( list.subList( currentIndex , end ) );
         }
-        return result;
-    }    
-}
\ No newline at end of file
+    }
+}
@@ -15,31 +15,32 @@
  */
 package de.codesourcery.springmass.springmass;
 
-import java.awt.Color;
 import java.util.Random;
 
 import de.codesourcery.springmass.math.Vector4;
 
 public class SpringMassSystemFactory {
 
-	private Spring createSpring(Mass m1,Mass m2,double restLength , boolean doRender,Color color,SimulationParameters parameters) 
+	private void addSpring(SpringTable springs,ParticleStore particles,int m1,int m2,double restLength,byte type,SimulationParameters parameters) 
 	{
-		return new Spring(m1, m2, restLength, doRender, color, parameters.getSpringCoefficient() );
+		springs.add( particles , m1 , m2 , restLength , parameters.getSpringCoefficient() , type );
 	}
 	
-	private Spring createSpring(Mass m1,Mass m2,double restLength , boolean doRender,SimulationParameters parameters) 
+	private static int getSpringCount(int columns,int rows) 
 	{
-		return createSpring(m1, m2, restLength, doRender, Color.green , parameters);
-	}	
+		final int horizontal = rows*(columns-1);
+		final int vertical = columns*(rows-1);
+		final int cross = 2*(columns-1)*(rows-1);
+		final int horizontalOutline = rows*Math.max(0,columns-2);
+		final int verticalOutline = columns*Math.max(0,rows-2);
+		return horizontal+vertical+cross+horizontalOutline+verticalOutline;
+	}
 	
 	public SpringMassSystem create(SimulationParameters parameters) 
 	{
 		System.out.println("Point masses: "+(parameters.getGridRowCount()*parameters.getGridColumnCount()));
 		
-		final Mass[][] masses = new Mass[parameters.getGridColumnCount()][];
-		for ( int i = 0 ; i < parameters.getGridColumnCount() ; i++ ) {
-			masses[i] = new Mass[parameters.getGridRowCount()];
-		}
+		final ParticleStore particles = new ParticleStore( parameters.getGridColumnCount() , parameters.getGridRowCount() , parameters.getStorageType() , parameters.isSinglePrecision() , parameters.getGridLayout() );
 		
 		int springCount = 0;
 
@@ -56,36 +57,44 @@ public class SpringMassSystemFactory {
 			for ( int y = 0 ; y < parameters.getGridRowCount() ; y++ ) 
 			{
 				final Vector4 pos = new Vector4( xOffset + scaleX*x , yOffset + scaleY*factor*y,-10);
-				final Mass m = new Mass( Color.red  , pos , parameters.getParticleMass() );
+				final int index = particles.index( x , y );
+				particles.init( index , pos , parameters.getParticleMass() );
 				if ( y == 0 ) {
-					m.setFixed( true );
+					particles.setFlags( index , Mass.FLAG_FIXED , true );
 				}
-				masses[x][y] = m;
 				factor -= factorDecrement;
 			}
 		}
 		
+		final double horizRestLength = scaleX*parameters.getHorizontalRestLengthFactor();
+		final double verticalRestLength = scaleY*parameters.getVerticalRestLengthFactor();
+		
 		final Random random = new Random(0xdeadbeef);
-		final SpringMassSystem system = new SpringMassSystem(parameters,masses,random);
+		if ( parameters.getSolverType() == SolverType.GRID_STENCIL || parameters.getSolverType() == SolverType.FUSED_GRID_STENCIL ) 
+		{
+			final GridStencil stencil = new GridStencil( particles , horizRestLength , verticalRestLength , parameters.getSpringCoefficient() );
+			System.out.println("Springs: "+stencil.getSpringCount()+" (implicit)");
+			return new SpringMassSystem( parameters , particles , stencil , random );
+		}
+		
+		final SpringTable springs = new SpringTable( getSpringCount( parameters.getGridColumnCount() , parameters.getGridRowCount() ) , parameters.getStorageType() , parameters.isSinglePrecision() );
 
 		// connect masses horizontally
-		final double horizRestLength = scaleX*parameters.getHorizontalRestLengthFactor();
 		for ( int y = 0 ; y < parameters.getGridRowCount() ; y++ ) 
 		{
 			for ( int x = 0 ; x < (parameters.getGridColumnCount()-1) ; x++ ) 
 			{
-				system.addSpring( createSpring( masses[x][y] , masses[x+1][y] , horizRestLength , true , parameters ) );
+				addSpring( springs , particles , particles.index( x , y ) , particles.index( x+1 , y ) , horizRestLength , SpringTable.TYPE_STRUCTURAL , parameters );
 				springCount++;
 			}
 		}
 
 		// connect masses vertically
-		final double verticalRestLength = scaleY*parameters.getVerticalRestLengthFactor();
 		for ( int x = 0 ; x < parameters.getGridColumnCount() ; x++ ) 
 		{
 			for ( int y = 0 ; y < (parameters.getGridRowCount()-1) ; y++ ) 
 			{
-				system.addSpring( createSpring( masses[x][y] , masses[x][y+1] , verticalRestLength , true , parameters ) );
+				addSpring( springs , particles , particles.index( x , y ) , particles.index( x , y+1 ) , verticalRestLength , SpringTable.TYPE_STRUCTURAL , parameters );
 				springCount++;
 			}
 		}	
@@ -96,8 +105,8 @@ public class SpringMassSystemFactory {
 		{
 			for ( int y = 0 ; y < (parameters.getGridRowCount()-1) ; y++ ) 
 			{
-				system.addSpring( createSpring( masses[x][y] , masses[x+1][y+1] , crossConnectRestLength , parameters.isRenderAllSprings() , Color.YELLOW , parameters ) );
-				system.addSpring( createSpring( masses[x][y+1] , masses[x+1][y] , crossConnectRestLength , parameters.isRenderAllSprings() , Color.YELLOW , parameters ) );
+				addSpring( springs , particles , particles.index( x , y ) , particles.index( x+1 , y+1 ) , crossConnectRestLength , SpringTable.TYPE_SHEAR , parameters );
+				addSpring( springs , particles , particles.index( x , y+1 ) , particles.index( x+1 , y ) , crossConnectRestLength , SpringTable.TYPE_SHEAR , parameters );
 				springCount+=2;
 			}
 		}	
@@ -107,7 +116,7 @@ public class SpringMassSystemFactory {
 		for ( int y = 0 ; y < parameters.getGridRowCount() ; y++ ) {
 			for ( int x = 0 ; x < (parameters.getGridColumnCount()-2) ; x++ ) 
 			{
-				system.addSpring( createSpring( masses[x][y] , masses[x+2][y] , horizOutlineRestLength , parameters.isRenderAllSprings(), Color.BLUE , parameters ) );
+				addSpring( springs , particles , particles.index( x , y ) , particles.index( x+2 , y ) , horizOutlineRestLength , SpringTable.TYPE_BEND , parameters );
 				springCount++;
 			}	
 		}
@@ -117,11 +126,17 @@ public class SpringMassSystemFactory {
 		{ 
 			for ( int y = 0 ; y < (parameters.getGridRowCount()-2) ; y++ ) 
 			{
-				system.addSpring( createSpring( masses[x][y] , masses[x][y+2] , verticalOutlineRestLength , parameters.isRenderAllSprings(), Color.BLUE , parameters ) );
+				addSpring( springs , particles , particles.index( x , y ) , particles.index( x , y+2 ) , verticalOutlineRestLength , SpringTable.TYPE_BEND , parameters );
 				springCount++;				
 			}		
 		}
 		System.out.println("Springs: "+springCount);
-		return system;
+		
+		if ( parameters.getSolverType() == SolverType.GAUSS_SEIDEL ) {
+			final int colorCount = SpringColoring.assignColors( springs , particles.count );
+			System.out.println("Spring colors: "+colorCount);
+		}
+		
+		return new SpringMassSystem(parameters,particles,springs,random);
 	}
 }
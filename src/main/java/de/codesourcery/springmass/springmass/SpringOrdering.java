@@ -0,0 +1,151 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Renumbers the springs of a {@link SpringTable} so that springs attached to 
+ * nearby particles are stored next to each other.
+ *
+ * <p>Springs are sorted by the lower particle index of their two endpoints (counting sort, stable). 
+ * Since particle indices follow the {@link GridLayout}, a contiguous range of springs then only 
+ * touches a compact set of particles instead of the whole grid.</p>
+ * 
+ * <p>When springs have been colored (see {@link SpringColoring}), they are sorted by color first 
+ * so that each color occupies a contiguous range of the table.</p>
+ *
+ * <p>Springs only need to be sorted once, torn springs are removed without changing the order 
+ * of the remaining ones (see {@link SpringTable#compact(long[], int[])}) so afterwards only the 
+ * color ranges need to be updated.</p>
+ */
+public final class SpringOrdering
+{
+    private final int particleCount;
+    private final int colorCount;
+    private final int[] colorStart;
+
+    private final int[] bucketStart;
+    // order[newIndex] = oldIndex
+    private final int[] order;
+    // newIndex[oldIndex]
+    private final int[] newIndex;
+    private final boolean[] visited;
+
+    public SpringOrdering(int particleCount,int springCapacity)
+    {
+        this( particleCount , springCapacity , 1 );
+    }
+
+    /**
+     * @param colorCount number of spring colors to sort by
+     */
+    public SpringOrdering(int particleCount,int springCapacity,int colorCount)
+    {
+        this.particleCount = particleCount;
+        this.colorCount = colorCount;
+        colorStart = new int[ colorCount+1 ];
+        bucketStart = new int[ colorCount*particleCount+1 ];
+        order = new int[ springCapacity ];
+        newIndex = new int[ springCapacity ];
+        visited = new boolean[ springCapacity ];
+    }
+
+    /**
+     * Sorts springs by their endpoints.
+     *
+     * @param springs
+     * @param adjacency adjacency to update with the new spring indices, may be <code>null</code>
+     */
+    public void apply(SpringTable springs,SpringAdjacency adjacency)
+    {
+        final int springCount = springs.size();
+        final int bucketCount = bucketStart.length - 1;
+
+        for ( int i = 0 ; i <= bucketCount ; i++ ) {
+            bucketStart[i] = 0;
+        }
+        for ( int s = 0 ; s < springCount ; s++ ) {
+            bucketStart[ bucket( springs , s ) + 1 ]++;
+        }
+        for ( int i = 0 ; i < bucketCount ; i++ ) {
+            bucketStart[i+1] += bucketStart[i];
+        }
+        for ( int color = 0 ; color <= colorCount ; color++ ) {
+            colorStart[color] = bucketStart[ color*particleCount ];
+        }
+
+        boolean changed = false;
+        for ( int s = 0 ; s < springCount ; s++ )
+        {
+            final int target = bucketStart[ bucket( springs , s ) ]++;
+            order[ target ] = s;
+            newIndex[ s ] = target;
+            changed |= ( target != s );
+        }
+
+        if ( changed )
+        {
+            springs.reorder( order , visited );
+            if ( adjacency != null ) {
+                adjacency.renumber( newIndex );
+            }
+        }
+    }
+
+    /**
+     * Updates the color ranges after springs have been removed without
+     * changing the order of the remaining springs.
+     *
+     * @param springs
+     */
+    public void updateColorRanges(SpringTable springs)
+    {
+        if ( colorCount == 1 ) {
+            colorStart[1] = springs.size();
+            return;
+        }
+        for ( int color = 0 ; color <= colorCount ; color++ ) {
+            colorStart[color] = 0;
+        }
+        for ( int s = 0 , count = springs.size() ; s < count ; s++ ) {
+            colorStart[ springs.color.get( s ) + 1 ]++;
+        }
+        for ( int color = 0 ; color < colorCount ; color++ ) {
+            colorStart[color+1] += colorStart[color];
+        }
+    }
+
+    private int bucket(SpringTable springs,int spring)
+    {
+        final int lowerEndpoint = Math.min( springs.m1.get( spring ) , springs.m2.get( spring ) );
+        return colorCount == 1 ? lowerEndpoint : springs.color.get( spring ) * particleCount + lowerEndpoint;
+    }
+
+    public int getColorCount() {
+        return colorCount;
+    }
+
+    /**
+     * Returns the index of the first spring with a given color, 
+     * valid until springs are added or removed.
+     */
+    public int getColorStart(int color) {
+        return colorStart[color];
+    }
+
+    public int getColorEnd(int color) {
+        return colorStart[color+1];
+    }
+}
@@ -0,0 +1,272 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Index-based storage for all springs of a {@link SpringMassSystem}.
+ *
+ * <p>Springs are kept in parallel primitive columns and referenced by their
+ * position in the table. Removing springs (see {@link #compact(long[], int[])}) shifts 
+ * the remaining springs down without changing their order, so spring indices are 
+ * only stable until the next removal.</p>
+ */
+public final class SpringTable
+{
+    public static final byte TYPE_STRUCTURAL = 0;
+    public static final byte TYPE_SHEAR = 1;
+    public static final byte TYPE_BEND = 2;
+
+    public final int capacity;
+    public final StorageType storageType;
+    public final boolean singlePrecision;
+
+    private int count;
+
+    public final IntColumn m1;
+    public final IntColumn m2;
+
+    public final DoubleColumn restLength;
+    public final DoubleColumn coefficient;
+
+    /*  double im1 = 1/m1.mass;
+     *  double im2 = 1/m2.mass;
+     *  double ratio = im1 / (im1 + im2);
+     */
+    public final DoubleColumn m1m2Ratio;
+
+    public final DoubleColumn forceX;
+    public final DoubleColumn forceY;
+    public final DoubleColumn forceZ;
+
+    public final ByteColumn type;
+
+    // see SpringColoring
+    public final ByteColumn color;
+
+    public SpringTable(int capacity)
+    {
+        this( capacity , StorageType.HEAP , false );
+    }
+
+    /**
+     * @param singlePrecision whether spring forces should be stored with single precision
+     */
+    public SpringTable(int capacity,StorageType storageType,boolean singlePrecision)
+    {
+        if ( capacity < 0 ) {
+            throw new IllegalArgumentException("Invalid capacity: "+capacity);
+        }
+        this.capacity = capacity;
+        this.storageType = storageType;
+        this.singlePrecision = singlePrecision;
+
+        m1 = storageType.createIntColumn( capacity );
+        m2 = storageType.createIntColumn( capacity );
+        restLength = storageType.createDoubleColumn( capacity );
+        coefficient = storageType.createDoubleColumn( capacity );
+        m1m2Ratio = storageType.createDoubleColumn( capacity );
+        forceX = storageType.createDoubleColumn( capacity , singlePrecision );
+        forceY = storageType.createDoubleColumn( capacity , singlePrecision );
+        forceZ = storageType.createDoubleColumn( capacity , singlePrecision );
+        type = storageType.createByteColumn( capacity );
+        color = storageType.createByteColumn( capacity );
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns whether all <code>int</code> and <code>double</code> columns are backed by arrays 
+     * (see {@link IntColumn.Heap#array()} and {@link DoubleColumn.Heap#array()}).
+     */
+    public boolean isArrayBacked() {
+        return storageType == StorageType.HEAP && ! singlePrecision;
+    }
+
+    /**
+     * Returns whether the spring forces are backed by <code>float[]</code> arrays 
+     * (see {@link DoubleColumn.FloatHeap#array()}) and all other columns by arrays.
+     */
+    public boolean isFloatArrayBacked() {
+        return storageType == StorageType.HEAP && singlePrecision;
+    }
+
+    public int add(ParticleStore particles,int mass1,int mass2,double restLength,double coefficient,byte type)
+    {
+        if ( count == capacity ) {
+            throw new IllegalStateException("Spring table is full ("+capacity+" springs)");
+        }
+        final double im1 = particles.inverseMass.get( mass1 ); 
+        final double im2 = particles.inverseMass.get( mass2 ); 
+        
+        final int index = count++;
+        this.m1.set( index , mass1 );
+        this.m2.set( index , mass2 );
+        this.restLength.set( index , restLength );
+        this.coefficient.set( index , coefficient );
+        this.m1m2Ratio.set( index , im1 / (im1 + im2) );
+        this.type.set( index , type );
+        this.color.set( index , (byte) 0 );
+        forceX.set( index , 0 );
+        forceY.set( index , 0 );
+        forceZ.set( index , 0 );
+        return index;
+    }
+
+    /**
+     * Removes all springs whose bit is set in a bitmap, keeping the order of the remaining springs.
+     *
+     * @param removed bit <code>s &amp; 63</code> of word <code>s &gt;&gt;&gt; 6</code> is set if spring <code>s</code> should be removed
+     * @param newIndex receives the new index of each spring, <code>-1</code> for removed springs
+     * @return number of removed springs
+     */
+    public int compact(long[] removed,int[] newIndex)
+    {
+        int write = 0;
+        for ( int s = 0 ; s < count ; s++ )
+        {
+            if ( ( removed[ s >>> 6 ] & ( 1L << s ) ) != 0 ) {
+                newIndex[s] = -1;
+                continue;
+            }
+            if ( s != write ) {
+                move( s , write );
+            }
+            newIndex[s] = write++;
+        }
+        final int removedCount = count - write;
+        count = write;
+        return removedCount;
+    }
+
+    /**
+     * Reorders springs so that spring <code>i</code> afterwards holds the spring
+     * that was previously stored at <code>order[i]</code>.
+     *
+     * @param order permutation of <code>0...size()-1</code>
+     * @param visited scratch space with at least <code>size()</code> elements
+     */
+    public void reorder(int[] order,boolean[] visited)
+    {
+        for ( int i = 0 ; i < count ; i++ ) {
+            visited[i] = false;
+        }
+        // follow each cycle of the permutation, buffering the first spring of the cycle
+        for ( int start = 0 ; start < count ; start++ )
+        {
+            if ( visited[start] ) {
+                continue;
+            }
+            final int tmpM1 = m1.get( start );
+            final int tmpM2 = m2.get( start );
+            final double tmpRestLength = restLength.get( start );
+            final double tmpCoefficient = coefficient.get( start );
+            final double tmpRatio = m1m2Ratio.get( start );
+            final double tmpForceX = forceX.get( start );
+            final double tmpForceY = forceY.get( start );
+            final double tmpForceZ = forceZ.get( start );
+            final byte tmpType = type.get( start );
+            final byte tmpColor = color.get( start );
+
+            int current = start;
+            while ( true )
+            {
+                visited[current] = true;
+                final int source = order[current];
+                if ( source == start ) 
+                {
+                    m1.set( current , tmpM1 );
+                    m2.set( current , tmpM2 );
+                    restLength.set( current , tmpRestLength );
+                    coefficient.set( current , tmpCoefficient );
+                    m1m2Ratio.set( current , tmpRatio );
+                    forceX.set( current , tmpForceX );
+                    forceY.set( current , tmpForceY );
+                    forceZ.set( current , tmpForceZ );
+                    type.set( current , tmpType );
+                    color.set( current , tmpColor );
+                    break;
+                }
+                move( source , current );
+                current = source;
+            }
+        }
+    }
+
+    private void move(int from,int to)
+    {
+        m1.set( to , m1.get( from ) );
+        m2.set( to , m2.get( from ) );
+        restLength.set( to , restLength.get( from ) );
+        coefficient.set( to , coefficient.get( from ) );
+        m1m2Ratio.set( to , m1m2Ratio.get( from ) );
+        forceX.set( to , forceX.get( from ) );
+        forceY.set( to , forceY.get( from ) );
+        forceZ.set( to , forceZ.get( from ) );
+        type.set( to , type.get( from ) );
+        color.set( to , color.get( from ) );
+    }
+
+    public double lengthSquared(int spring,ParticleStore p)
+    {
+        final int i1 = m1.get( spring );
+        final int i2 = m2.get( spring );
+        final double dx = p.posX.get( i1 ) - p.posX.get( i2 );
+        final double dy = p.posY.get( i1 ) - p.posY.get( i2 );
+        final double dz = p.posZ.get( i1 ) - p.posZ.get( i2 );
+        return dx*dx + dy*dy + dz*dz;
+    }
+
+    /**
+     * Moves both endpoints of springs <code>start...end-1</code> towards or away from each 
+     * other so the springs regain their rest length (position-based Gauss-Seidel step).
+     *
+     * <p>The correction is scaled by the spring coefficient and split according to the 
+     * inverse masses, fixed or selected particles are not moved. Springs in the range 
+     * must not share particles if this method is invoked concurrently.</p>
+     */
+    public void projectConstraints(int start,int end,ParticleStore p)
+    {
+        for ( int spring = start ; spring < end ; spring++ )
+        {
+            final int i1 = m1.get( spring );
+            final int i2 = m2.get( spring );
+            final double w1 = p.hasFlags( i1 , Mass.FLAG_FIXED | Mass.FLAG_SELECTED ) ? 0 : p.inverseMass.get( i1 );
+            final double w2 = p.hasFlags( i2 , Mass.FLAG_FIXED | Mass.FLAG_SELECTED ) ? 0 : p.inverseMass.get( i2 );
+            final double weightSum = w1 + w2;
+            if ( weightSum == 0 ) {
+                continue;
+            }
+            final double dx = p.posX.get( i1 ) - p.posX.get( i2 );
+            final double dy = p.posY.get( i1 ) - p.posY.get( i2 );
+            final double dz = p.posZ.get( i1 ) - p.posZ.get( i2 );
+            final double length = Math.sqrt( dx*dx + dy*dy + dz*dz );
+            if ( length == 0 ) {
+                continue;
+            }
+            final double factor = coefficient.get( spring ) * ( restLength.get( spring ) - length ) / ( length * weightSum );
+            final double f1 = factor * w1;
+            final double f2 = factor * w2;
+            p.posX.set( i1 , p.posX.get( i1 ) + dx * f1 );
+            p.posY.set( i1 , p.posY.get( i1 ) + dy * f1 );
+            p.posZ.set( i1 , p.posZ.get( i1 ) + dz * f1 );
+            p.posX.set( i2 , p.posX.get( i2 ) - dx * f2 );
+            p.posY.set( i2 , p.posY.get( i2 ) - dy * f2 );
+            p.posZ.set( i2 , p.posZ.get( i2 ) - dz * f2 );
+        }
+    }
+}
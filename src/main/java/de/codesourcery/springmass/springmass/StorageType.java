@@ -0,0 +1,85 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Where particle and spring state is kept.
+ * 
+ * <p>{@link #OFF_HEAP} stores all columns in direct buffers so that very large 
+ * meshes do not inflate the Java heap, at the cost of slightly slower element access.</p>
+ */
+public enum StorageType 
+{
+    HEAP 
+    {
+        @Override
+        public DoubleColumn createDoubleColumn(int size) {
+            return new DoubleColumn.Heap( size );
+        }
+
+        @Override
+        public DoubleColumn createFloatColumn(int size) {
+            return new DoubleColumn.FloatHeap( size );
+        }
+
+        @Override
+        public IntColumn createIntColumn(int size) {
+            return new IntColumn.Heap( size );
+        }
+
+        @Override
+        public ByteColumn createByteColumn(int size) {
+            return new ByteColumn.Heap( size );
+        }
+    },
+    OFF_HEAP 
+    {
+        @Override
+        public DoubleColumn createDoubleColumn(int size) {
+            return new DoubleColumn.Direct( size );
+        }
+
+        @Override
+        public DoubleColumn createFloatColumn(int size) {
+            return new DoubleColumn.FloatDirect( size );
+        }
+
+        @Override
+        public IntColumn createIntColumn(int size) {
+            return new IntColumn.Direct( size );
+        }
+
+        @Override
+        public ByteColumn createByteColumn(int size) {
+            return new ByteColumn.Direct( size );
+        }
+    };
+
+    public abstract DoubleColumn createDoubleColumn(int size);
+
+    /**
+     * Creates a column that stores values with single precision.
+     */
+    public abstract DoubleColumn createFloatColumn(int size);
+
+    public DoubleColumn createDoubleColumn(int size,boolean singlePrecision) {
+        return singlePrecision ? createFloatColumn( size ) : createDoubleColumn( size );
+    }
+
+    public abstract IntColumn createIntColumn(int size);
+
+    public abstract ByteColumn createByteColumn(int size);
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Submits one task per chunk to a fixed-size {@link ThreadPoolExecutor}.
+ * 
+ * <p>Chunk tasks are re-used, but this engine is not allocation-free: idle workers block 
+ * on the queue's lock and condition, which allocates a wait node each time a worker 
+ * has to wait for a task on current JDKs.</p>
+ */
+final class ThreadPoolEngine extends AbstractExecutionEngine 
+{
+    private final ThreadPoolExecutor threadPool;
+    private final CompletionLatch latch = new CompletionLatch();
+
+    // chunk tasks are re-used, the array only grows when a larger range is processed for the first time
+    private Chunk[] chunks = new Chunk[0];
+
+    private final class Chunk implements Runnable 
+    {
+        public RangeTask task;
+        public int start;
+        public int end;
+
+        @Override
+        public void run()
+        {
+            try {
+                task.run( start , end );
+            } finally {
+                latch.countDown();
+            }
+        }
+    }
+
+    public ThreadPoolEngine(int threadCount) 
+    {
+        final BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<Runnable>( 500 );
+        final ThreadFactory threadFactory = new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                final Thread t = new Thread(r,"calculation-thread");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        threadPool = new ThreadPoolExecutor(threadCount, threadCount, 60, TimeUnit.SECONDS, workQueue, threadFactory, new ThreadPoolExecutor.CallerRunsPolicy() );
+        threadPool.prestartAllCoreThreads();
+    }
+
+    @Override
+    public void forEach(int size,int grainSize,RangeTask task) 
+    {
+        final int chunkCount = ( size + grainSize - 1 ) / grainSize;
+        if ( chunkCount > chunks.length ) 
+        {
+            final Chunk[] tmp = new Chunk[ chunkCount ];
+            for ( int i = 0 ; i < chunkCount ; i++ ) {
+                tmp[i] = i < chunks.length ? chunks[i] : new Chunk();
+            }
+            chunks = tmp;
+        }
+
+        for ( int i = 0 ; i < chunkCount ; i++ ) 
+        {
+            final Chunk chunk = chunks[i];
+            chunk.task = task;
+            chunk.start = i * grainSize;
+            chunk.end = Math.min( chunk.start + grainSize , size );
+        }
+
+        latch.reset( chunkCount );
+        for ( int i = 0 ; i < chunkCount ; i++ ) {
+            threadPool.execute( chunks[i] );
+        }
+        latch.await();
+    }
+
+    @Override
+    public int getThreadCount() {
+        return threadPool.getCorePoolSize();
+    }
+
+    @Override
+    public void shutdown() throws InterruptedException 
+    {
+        threadPool.shutdown();
+        threadPool.awaitTermination(60,TimeUnit.SECONDS );
+    }
+}
@@ -35,6 +35,8 @@ public class WindSimulator {
 	private int stepCount;
 	private Random random; 
 	
+	private final SphericalCoordinates newDirection = new SphericalCoordinates();
+	
 	public WindSimulator(Random random,WindParameters params) {
 		this.params = params;
 		this.random = random;
@@ -112,7 +114,9 @@ public class WindSimulator {
 		final float newXZAngleInRad = minXZAngleInRad+random.nextFloat()*(maxXZAngleInRad-minXZAngleInRad);
 		final float newXYAngleInRad = minXYAngleInRad+random.nextFloat()*(maxXYAngleInRad-minXYAngleInRad);		
 		
-		desiredDirection.set( new SphericalCoordinates( newXZAngleInRad , newXYAngleInRad ).toUnitVector() );
+		newDirection.setXZAngleInRad( newXZAngleInRad );
+		newDirection.setXYAngleInRad( newXYAngleInRad );
+		newDirection.toUnitVector( desiredDirection );
 		
 		directionIncrement.set( desiredDirection );
 		directionIncrement.minusInPlace( currentDirection );
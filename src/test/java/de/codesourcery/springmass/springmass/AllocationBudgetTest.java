@@ -0,0 +1,187 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Verifies that {@link SpringMassSystem#step()} does not allocate memory on the
+ * calling thread or the execution engine's worker threads once the simulation has warmed up.
+ *
+ * <p>Every combination of {@link ExecutionEngineType} and {@link SolverType} is checked,
+ * once as configured by default and once with wind and spring tearing enabled.
+ * {@link ExecutionEngineType#THREAD_POOL} is left out, its idle workers allocate
+ * when they block on the task queue.</p>
+ *
+ * <p>The warm-up is long enough for the JIT compiler to settle. Allocations are then counted
+ * over several windows and the smallest count must stay below one byte per step. Anything
+ * allocated on every step costs at least 16 bytes per step, while rare JVM events only show
+ * up in some windows: the first C2 compile of a class interns its string literals and a
+ * fork/join worker allocates a wait node when it has to block in a join. Only workers
+ * that exist when a window starts are counted, starting a thread is not part of stepping.</p>
+ */
+@RunWith(Parameterized.class)
+public class AllocationBudgetTest 
+{
+    /**
+     * Name of the worker threads all {@link ExecutionEngine}s create.
+     */
+    private static final String WORKER_THREAD_NAME = "calculation-thread";
+
+    /**
+     * Max. spring length used when tearing is enabled, torn springs keep
+     * showing up for a few thousand steps with the default grid.
+     */
+    private static final double TEARING_SPRING_LENGTH = 20;
+
+    private static final int WARMUP_STEPS = 2000;
+    private static final int MEASURED_STEPS = 200;
+    private static final int WINDOWS = 3;
+
+    private final ExecutionEngineType engine;
+    private final SolverType solver;
+    private final boolean windAndTearing;
+
+    @Parameters(name="{0} / {1} / wind and tearing: {2}")
+    public static List<Object[]> getConfigurations() 
+    {
+        final List<Object[]> result = new ArrayList<>();
+        for ( ExecutionEngineType engine : ExecutionEngineType.values() ) 
+        {
+            if ( engine == ExecutionEngineType.THREAD_POOL ) {
+                continue;
+            }
+            for ( SolverType solver : SolverType.values() ) 
+            {
+                result.add( new Object[] { engine , solver , false } );
+                result.add( new Object[] { engine , solver , true } );
+            }
+        }
+        return result;
+    }
+
+    public AllocationBudgetTest(ExecutionEngineType engine,SolverType solver,boolean windAndTearing) 
+    {
+        this.engine = engine;
+        this.solver = solver;
+        this.windAndTearing = windAndTearing;
+    }
+
+    @Test
+    public void testStepDoesNotAllocate() throws InterruptedException 
+    {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue( "Per-thread allocation counters are not supported" , bean instanceof com.sun.management.ThreadMXBean );
+        final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue( "Per-thread allocation counters are not supported" , threadBean.isThreadAllocatedMemorySupported() );
+        threadBean.setThreadAllocatedMemoryEnabled( true );
+
+        // workers of previously tested systems may still be shutting down
+        final long[] otherWorkers = getWorkerThreadIds( new long[0] );
+        final SpringMassSystem system = new SpringMassSystemFactory().create( createParameters() );
+        try 
+        {
+            for ( int i = 0 ; i < WARMUP_STEPS ; i++ ) {
+                system.step();
+            }
+            long allocated = Long.MAX_VALUE;
+            for ( int i = 0 ; i < WINDOWS ; i++ ) {
+                allocated = Math.min( allocated , measure( threadBean , system , otherWorkers ) );
+            }
+            assertTrue( "Allocated "+allocated+" bytes in "+MEASURED_STEPS+" steps" , allocated < MEASURED_STEPS );
+        }
+        finally {
+            system.destroy();
+        }
+    }
+
+    private SimulationParameters createParameters() 
+    {
+        final SimulationParamsBuilder builder = new SimulationParamsBuilder();
+        builder.setExecutionEngine( engine );
+        builder.setSolverType( solver );
+        // make sure there are worker threads to account for, even on a single CPU
+        builder.setThreadCount( Math.max( 2 , ExecutionEngineType.getDefaultThreadCount() ) );
+        if ( windAndTearing ) 
+        {
+            builder.setWindEnabled( true );
+            builder.setMaxSpringLength( TEARING_SPRING_LENGTH );
+        }
+        return builder.build();
+    }
+
+    private static long measure(com.sun.management.ThreadMXBean threadBean,SpringMassSystem system,long[] otherWorkers) 
+    {
+        final long[] workerIds = getWorkerThreadIds( otherWorkers );
+        final long[] workersBefore = new long[ workerIds.length ];
+        for ( int i = 0 ; i < workerIds.length ; i++ ) {
+            workersBefore[i] = threadBean.getThreadAllocatedBytes( workerIds[i] );
+        }
+        final long threadId = Thread.currentThread().getId();
+        final long before = threadBean.getThreadAllocatedBytes( threadId );
+        for ( int i = 0 ; i < MEASURED_STEPS ; i++ ) {
+            system.step();
+        }
+        long allocated = threadBean.getThreadAllocatedBytes( threadId ) - before;
+
+        // a worker that terminated while measuring reports -1
+        for ( int i = 0 ; i < workerIds.length ; i++ ) 
+        {
+            final long bytes = threadBean.getThreadAllocatedBytes( workerIds[i] );
+            if ( bytes > 0 ) {
+                allocated += bytes - workersBefore[i];
+            }
+        }
+        return allocated;
+    }
+
+    private static long[] getWorkerThreadIds(long[] excluded) 
+    {
+        final List<Thread> workers = new ArrayList<>();
+        for ( Thread t : Thread.getAllStackTraces().keySet() ) 
+        {
+            if ( WORKER_THREAD_NAME.equals( t.getName() ) && indexOf( excluded , t.getId() ) == -1 ) {
+                workers.add( t );
+            }
+        }
+        final long[] result = new long[ workers.size() ];
+        for ( int i = 0 ; i < result.length ; i++ ) {
+            result[i] = workers.get(i).getId();
+        }
+        return result;
+    }
+
+    private static int indexOf(long[] array,long value) 
+    {
+        for ( int i = 0 ; i < array.length ; i++ ) 
+        {
+            if ( array[i] == value ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
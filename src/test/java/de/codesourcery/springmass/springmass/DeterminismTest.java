@@ -0,0 +1,178 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Verifies that simulation results do not depend on the execution engine,
+ * the number of threads or the batch size.
+ *
+ * <p>Every solver runs with wind enabled, with and without tearing springs.
+ * For each combination of engine, thread count and batch size, the particle
+ * positions after a fixed number of steps are hashed (see {@link ParticleStore#positionHash()})
+ * and must match the reference hash of the scenario stored in <code>determinism.properties</code>.</p>
+ *
+ * <p>Reference hashes need to be recorded again whenever the physics change on purpose:
+ * <code>DeterminismTest &lt;file&gt; [steps]</code> writes them to a file.</p>
+ */
+@RunWith(Parameterized.class)
+public class DeterminismTest 
+{
+    private static final String REFERENCE_HASHES = "/determinism.properties";
+
+    private static final int[] THREAD_COUNTS = { 1 , 3 };
+    private static final int[] BATCH_SIZES = { 64 , 250 };
+
+    private final SolverType solver;
+    private final boolean tearSprings;
+
+    @Parameters(name="{0} / tearing: {1}")
+    public static List<Object[]> getScenarios() 
+    {
+        final List<Object[]> result = new ArrayList<>();
+        for ( SolverType solver : SolverType.values() ) 
+        {
+            result.add( new Object[] { solver , false } );
+            result.add( new Object[] { solver , true } );
+        }
+        return result;
+    }
+
+    public DeterminismTest(SolverType solver,boolean tearSprings) 
+    {
+        this.solver = solver;
+        this.tearSprings = tearSprings;
+    }
+
+    @Test
+    public void testResultsMatchReferenceHash() throws Exception 
+    {
+        final Properties reference = new Properties();
+        final InputStream in = DeterminismTest.class.getResourceAsStream( REFERENCE_HASHES );
+        assertNotNull( "Reference hashes not found on classpath: "+REFERENCE_HASHES , in );
+        try {
+            reference.load( in );
+        } finally {
+            in.close();
+        }
+        final int steps = Integer.parseInt( reference.getProperty( "steps" ) );
+        final String expected = reference.getProperty( getScenarioName( solver , tearSprings ) );
+        assertNotNull( "No reference hash for "+getScenarioName( solver , tearSprings ) , expected );
+
+        for ( ExecutionEngineType engine : ExecutionEngineType.values() ) 
+        {
+            for ( int threadCount : THREAD_COUNTS ) 
+            {
+                for ( int batchSize : BATCH_SIZES ) 
+                {
+                    final String hash = run( createParameters( solver , tearSprings , engine , threadCount , batchSize ) , steps );
+                    assertEquals( engine+" , "+threadCount+" threads , batch size "+batchSize , expected , hash );
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the reference hashes of all scenarios.
+     *
+     * <p>Usage: <code>DeterminismTest &lt;file&gt; [steps]</code></p>
+     */
+    public static void main(String[] args) throws Exception 
+    {
+        if ( args.length < 1 ) {
+            throw new IllegalArgumentException("Usage: DeterminismTest <file> [steps]");
+        }
+        final int steps = args.length > 1 ? Integer.parseInt( args[1] ) : 300;
+
+        final Properties reference = new Properties();
+        reference.setProperty( "steps" , Integer.toString( steps ) );
+        for ( Object[] scenario : getScenarios() ) 
+        {
+            final SolverType solver = (SolverType) scenario[0];
+            final boolean tearSprings = (Boolean) scenario[1];
+            final String name = getScenarioName( solver , tearSprings );
+            String firstHash = null;
+            for ( ExecutionEngineType engine : ExecutionEngineType.values() ) 
+            {
+                for ( int threadCount : THREAD_COUNTS ) 
+                {
+                    for ( int batchSize : BATCH_SIZES ) 
+                    {
+                        final String hash = run( createParameters( solver , tearSprings , engine , threadCount , batchSize ) , steps );
+                        if ( firstHash == null ) {
+                            firstHash = hash;
+                        } else if ( ! hash.equals( firstHash ) ) {
+                            throw new IllegalStateException( name+" is not deterministic: "+engine+" , "+threadCount+" threads , batch size "+batchSize );
+                        }
+                    }
+                }
+            }
+            reference.setProperty( name , firstHash );
+        }
+
+        final OutputStream out = new FileOutputStream( args[0] );
+        try {
+            reference.store( out , "Position hashes after "+steps+" steps, see DeterminismTest" );
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String getScenarioName(SolverType solver,boolean tearSprings) {
+        return solver.name().toLowerCase()+( tearSprings ? ".tearing" : "" );
+    }
+
+    private static SimulationParameters createParameters(SolverType solver,boolean tearSprings,ExecutionEngineType engine,int threadCount,int batchSize) 
+    {
+        final SimulationParamsBuilder builder = new SimulationParamsBuilder();
+        builder.setSolverType( solver );
+        builder.setWindEnabled( true );
+        builder.setMaxSpringLength( tearSprings ? 20 : -1 );
+        builder.setExecutionEngine( engine );
+        builder.setThreadCount( threadCount );
+        builder.setForkJoinBatchSize( batchSize );
+        return builder.build();
+    }
+
+    private static String run(SimulationParameters params,int steps) throws InterruptedException 
+    {
+        final SpringMassSystem system = new SpringMassSystemFactory().create( params );
+        try 
+        {
+            for ( int i = 0 ; i < steps ; i++ ) {
+                system.step();
+            }
+            return Long.toHexString( system.getParticles().positionHash() );
+        }
+        finally {
+            system.destroy();
+        }
+    }
+}
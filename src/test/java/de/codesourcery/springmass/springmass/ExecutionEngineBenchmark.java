@@ -0,0 +1,73 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Measures the time per simulation step for each {@link ExecutionEngineType} 
+ * with an increasing number of worker threads.
+ * 
+ * <p>Usage: <code>ExecutionEngineBenchmark [steps] [max. threads] [max. spring length]</code></p>
+ */
+public class ExecutionEngineBenchmark 
+{
+    public static void main(String[] args) throws Exception 
+    {
+        final int steps = args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+        final int maxThreads = args.length > 1 ? Integer.parseInt( args[1] ) : Runtime.getRuntime().availableProcessors();
+
+        final SimulationParamsBuilder builder = new SimulationParamsBuilder();
+        if ( args.length > 2 ) {
+            builder.setMaxSpringLength( Double.parseDouble( args[2] ) );
+        }
+
+        System.out.println("CPUs: "+Runtime.getRuntime().availableProcessors());
+        System.out.println("engine ; threads ; ms/step ; speed-up");
+        for ( ExecutionEngineType type : ExecutionEngineType.values() ) 
+        {
+            double singleThreaded = 0;
+            for ( int threads = 1 ; threads <= maxThreads ; threads *= 2 ) 
+            {
+                builder.setExecutionEngine( type );
+                builder.setThreadCount( threads );
+                final double millis = run( builder.build() , steps );
+                if ( threads == 1 ) {
+                    singleThreaded = millis;
+                }
+                System.out.println( type+" ; "+threads+" ; "+String.format("%.3f", millis )+" ; "+String.format("%.2f", singleThreaded / millis ) );
+            }
+        }
+    }
+
+    private static double run(SimulationParameters params,int steps) throws InterruptedException 
+    {
+        final SpringMassSystem system = new SpringMassSystemFactory().create( params );
+        try 
+        {
+            // warm-up
+            for ( int i = 0 ; i < steps/5 ; i++ ) {
+                system.step();
+            }
+            final long start = System.nanoTime();
+            for ( int i = 0 ; i < steps ; i++ ) {
+                system.step();
+            }
+            return ( System.nanoTime() - start ) / 1000000.0 / steps;
+        } 
+        finally {
+            system.destroy();
+        }
+    }
+}
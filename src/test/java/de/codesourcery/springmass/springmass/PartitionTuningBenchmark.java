@@ -0,0 +1,99 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Runs {@link PartitionAutoTuner} for each {@link SolverType} and compares
+ * the time per simulation step with the default and the tuned partitioning.
+ * 
+ * <p>Usage: <code>PartitionTuningBenchmark [execution engine] [threads] [steps] [max. spring length]</code></p>
+ */
+public class PartitionTuningBenchmark 
+{
+    public static void main(String[] args) throws Exception 
+    {
+        final SimulationParamsBuilder builder = new SimulationParamsBuilder();
+        if ( args.length > 0 ) {
+            builder.setExecutionEngine( ExecutionEngineType.valueOf( args[0] ) );
+        }
+        if ( args.length > 1 ) {
+            builder.setThreadCount( Integer.parseInt( args[1] ) );
+        }
+        final int steps = args.length > 2 ? Integer.parseInt( args[2] ) : 1000;
+        if ( args.length > 3 ) {
+            builder.setMaxSpringLength( Double.parseDouble( args[3] ) );
+        }
+
+        System.out.println("CPUs: "+Runtime.getRuntime().availableProcessors());
+        System.out.println("solver ; threads ; batch size ; spring batch factor ; tuning steps ; ms/step (default) ; ms/step (tuned)");
+        for ( SolverType solver : SolverType.values() ) 
+        {
+            builder.setSolverType( solver );
+            final SimulationParameters params = builder.build();
+
+            final SpringMassSystem system = new SpringMassSystemFactory().create( params );
+            final SimulationParameters tuned;
+            final int threads;
+            final int tuningSteps;
+            try 
+            {
+                threads = system.getThreadCount();
+                final PartitionAutoTuner tuner = new PartitionAutoTuner( system.getParticles().count , threads , 
+                        params.getForkJoinBatchSize() , params.getSpringBatchFactor() , system.getSprings() != null , 
+                        PartitionAutoTuner.DEFAULT_WARMUP_STEPS , PartitionAutoTuner.DEFAULT_STEPS_PER_CANDIDATE );
+                tuningSteps = tuner.getTuningSteps();
+                system.setPartitioning( tuner.getBatchSize() , tuner.getSpringBatchFactor() );
+                while ( ! tuner.isSettled() ) 
+                {
+                    final long start = System.nanoTime();
+                    system.step();
+                    if ( tuner.stepFinished( System.nanoTime() - start ) ) {
+                        system.setPartitioning( tuner.getBatchSize() , tuner.getSpringBatchFactor() );
+                    }
+                }
+                tuned = params.withPartitioning( tuner.getBatchSize() , tuner.getSpringBatchFactor() );
+            } 
+            finally {
+                system.destroy();
+            }
+
+            final double defaultMillis = run( params , steps );
+            final double tunedMillis = run( tuned , steps );
+            System.out.println( solver+" ; "+threads+" ; "+tuned.getForkJoinBatchSize()+" ; "+tuned.getSpringBatchFactor()+" ; "+tuningSteps+" ; "+
+                    String.format("%.3f", defaultMillis )+" ; "+String.format("%.3f", tunedMillis ) );
+        }
+    }
+
+    private static double run(SimulationParameters params,int steps) throws InterruptedException 
+    {
+        final SpringMassSystem system = new SpringMassSystemFactory().create( params );
+        try 
+        {
+            // warm-up
+            for ( int i = 0 ; i < steps/5 ; i++ ) {
+                system.step();
+            }
+            final long start = System.nanoTime();
+            for ( int i = 0 ; i < steps ; i++ ) {
+                system.step();
+            }
+            return ( System.nanoTime() - start ) / 1000000.0 / steps;
+        } 
+        finally {
+            system.destroy();
+        }
+    }
+}
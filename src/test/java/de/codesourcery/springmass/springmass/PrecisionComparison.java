@@ -0,0 +1,80 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Runs the same simulation with double- and single-precision state side by side 
+ * and reports how far the single-precision particle trajectories drift.
+ * 
+ * <p>Usage: <code>PrecisionComparison [steps] [report interval] [max. spring length]</code></p>
+ */
+public class PrecisionComparison 
+{
+    public static void main(String[] args) throws Exception 
+    {
+        final int steps = args.length > 0 ? Integer.parseInt( args[0] ) : 1000;
+        final int reportInterval = args.length > 1 ? Integer.parseInt( args[1] ) : 100;
+
+        final SimulationParamsBuilder builder = new SimulationParamsBuilder();
+        if ( args.length > 2 ) {
+            builder.setMaxSpringLength( Double.parseDouble( args[2] ) );
+        }
+
+        builder.setSinglePrecision( false );
+        final SpringMassSystem doubleSystem = new SpringMassSystemFactory().create( builder.build() );
+
+        builder.setSinglePrecision( true );
+        final SpringMassSystem floatSystem = new SpringMassSystemFactory().create( builder.build() );
+
+        try 
+        {
+            System.out.println("step ; max. deviation ; RMS deviation ; springs (double) ; springs (float)");
+            for ( int step = 1 ; step <= steps ; step++ ) 
+            {
+                doubleSystem.step();
+                floatSystem.step();
+                if ( (step % reportInterval) == 0 || step == steps ) {
+                    report( step , doubleSystem , floatSystem );
+                }
+            }
+        } 
+        finally 
+        {
+            doubleSystem.destroy();
+            floatSystem.destroy();
+        }
+    }
+
+    private static void report(int step,SpringMassSystem reference,SpringMassSystem other) 
+    {
+        final ParticleStore p1 = reference.getParticles();
+        final ParticleStore p2 = other.getParticles();
+
+        double maxDistance = 0;
+        double sumSquared = 0;
+        for ( int i = 0 ; i < p1.count ; i++ ) 
+        {
+            final double dx = p1.posX.get(i) - p2.posX.get(i);
+            final double dy = p1.posY.get(i) - p2.posY.get(i);
+            final double dz = p1.posZ.get(i) - p2.posZ.get(i);
+            final double distanceSquared = dx*dx + dy*dy + dz*dz;
+            sumSquared += distanceSquared;
+            maxDistance = Math.max( maxDistance , Math.sqrt( distanceSquared ) );
+        }
+        final double rms = Math.sqrt( sumSquared / p1.count );
+        System.out.println( step+" ; "+maxDistance+" ; "+rms+" ; "+reference.getSprings().size()+" ; "+other.getSprings().size() );
+    }
+}
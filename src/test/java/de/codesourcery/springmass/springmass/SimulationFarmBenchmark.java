@@ -0,0 +1,116 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.codesourcery.springmass.springmass.SimulationFarm.Simulation;
+
+/**
+ * Runs many small cloth simulations at once, both on a {@link SimulationFarm} and with 
+ * one thread plus one {@link ExecutionEngineType#THREAD_POOL} engine per simulation.
+ * 
+ * <p>Usage: <code>SimulationFarmBenchmark [simulations] [steps per simulation] [farm threads] [steps per slice]</code></p>
+ */
+public class SimulationFarmBenchmark 
+{
+    public static void main(String[] args) throws Exception 
+    {
+        final int simulationCount = args.length > 0 ? Integer.parseInt( args[0] ) : 200;
+        final int steps = args.length > 1 ? Integer.parseInt( args[1] ) : 200;
+        final int threads = args.length > 2 ? Integer.parseInt( args[2] ) : Runtime.getRuntime().availableProcessors();
+        final int stepsPerSlice = args.length > 3 ? Integer.parseInt( args[3] ) : SimulationFarm.DEFAULT_STEPS_PER_SLICE;
+
+        final SimulationParamsBuilder builder = new SimulationParamsBuilder();
+        builder.setGridColumnCount( 20 );
+        builder.setGridRowCount( 15 );
+        builder.setMaxSpringLength( 20 );
+        builder.setWindEnabled( true );
+        final SimulationParameters params = builder.build();
+
+        System.out.println("CPUs: "+Runtime.getRuntime().availableProcessors()+" , simulations: "+simulationCount+" , steps: "+steps);
+
+        // one farm
+        final SimulationFarm farm = new SimulationFarm( threads , stepsPerSlice );
+        try 
+        {
+            for ( int i = 0 ; i < simulationCount ; i++ ) {
+                farm.submit( params , steps );
+            }
+            while ( farm.getActiveSimulationCount() > 0 ) 
+            {
+                Thread.sleep( 250 );
+                final List<Simulation> active = farm.getSimulations();
+                if ( active.isEmpty() ) {
+                    break;
+                }
+                long min = Long.MAX_VALUE;
+                long max = 0;
+                for ( Simulation s : active ) 
+                {
+                    min = Math.min( min , s.getStepsDone() );
+                    max = Math.max( max , s.getStepsDone() );
+                }
+                System.out.println("farm: steps done per simulation: min "+min+" , max "+max);
+            }
+            farm.awaitCompletion();
+            System.out.println("farm: "+threads+" threads , "+String.format("%.0f", farm.getStepsPerSecond() )+" steps/s , utilization "+
+                    String.format("%.2f", farm.getUtilization() ) );
+        } 
+        finally {
+            farm.shutdown();
+        }
+
+        // dedicated thread and engine per simulation
+        final List<SpringMassSystem> systems = new ArrayList<>();
+        final List<Thread> workers = new ArrayList<>();
+        try 
+        {
+            for ( int i = 0 ; i < simulationCount ; i++ ) {
+                systems.add( new SpringMassSystemFactory().create( params.withExecutionEngine( ExecutionEngineType.THREAD_POOL , 0 ) ) );
+            }
+            final long start = System.nanoTime();
+            for ( final SpringMassSystem system : systems ) 
+            {
+                final Thread t = new Thread() 
+                {
+                    @Override
+                    public void run() 
+                    {
+                        for ( int i = 0 ; i < steps ; i++ ) {
+                            system.step();
+                        }
+                    }
+                };
+                workers.add( t );
+                t.start();
+            }
+            for ( Thread t : workers ) {
+                t.join();
+            }
+            final double seconds = ( System.nanoTime() - start ) / 1000000000.0;
+            final int poolThreads = systems.get(0).getThreadCount();
+            System.out.println("dedicated: "+( simulationCount * ( 1 + poolThreads ) )+" threads , "+String.format("%.0f", simulationCount * (double) steps / seconds )+" steps/s");
+        } 
+        finally 
+        {
+            for ( SpringMassSystem system : systems ) {
+                system.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright 2012 Tobias Gierke <tobias.gierke@code-sourcery.de>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.codesourcery.springmass.springmass;
+
+/**
+ * Compares how well the {@link SolverType#SPRING_TABLE} and {@link SolverType#GAUSS_SEIDEL} 
+ * solvers keep structural springs at their rest length for different iteration counts.
+ * 
+ * <p>Prints the mean and max. relative deviation from the rest length after the 
+ * simulation ran for a number of steps, together with the time per step.</p>
+ * 
+ * <p>Usage: <code>SolverComparison [steps] [iteration count] [iteration count] ...</code></p>
+ */
+public class SolverComparison 
+{
+    public static void main(String[] args) throws Exception 
+    {
+        final int steps = args.length > 0 ? Integer.parseInt( args[0] ) : 500;
+        final int[] iterationCounts;
+        if ( args.length > 1 ) 
+        {
+            iterationCounts = new int[ args.length-1 ];
+            for ( int i = 1 ; i < args.length ; i++ ) {
+                iterationCounts[i-1] = Integer.parseInt( args[i] );
+            }
+        } else {
+            iterationCounts = new int[] { 1 , 2 , 3 , 5 , 10 };
+        }
+
+        System.out.println("solver ; iterations ; mean strain ; max. strain ; ms/step");
+        for ( SolverType type : new SolverType[] { SolverType.SPRING_TABLE , SolverType.GAUSS_SEIDEL } ) 
+        {
+            for ( int iterationCount : iterationCounts ) 
+            {
+                final SimulationParamsBuilder builder = new SimulationParamsBuilder();
+                builder.setSolverType( type );
+                builder.setIterationCount( iterationCount );
+                run( builder.build() , steps );
+            }
+        }
+    }
+
+    private static void run(SimulationParameters params,int steps) throws InterruptedException 
+    {
+        final SpringMassSystem system = new SpringMassSystemFactory().create( params );
+        try 
+        {
+            final long start = System.nanoTime();
+            for ( int i = 0 ; i < steps ; i++ ) {
+                system.step();
+            }
+            final double millis = ( System.nanoTime() - start ) / 1000000.0 / steps;
+
+            final SpringTable springs = system.getSprings();
+            final ParticleStore particles = system.getParticles();
+            double sum = 0;
+            double max = 0;
+            int count = 0;
+            for ( int s = 0 ; s < springs.size() ; s++ ) 
+            {
+                if ( springs.type.get( s ) != SpringTable.TYPE_STRUCTURAL ) {
+                    continue;
+                }
+                final double length = Math.sqrt( springs.lengthSquared( s , particles ) );
+                final double strain = Math.abs( length - springs.restLength.get( s ) ) / springs.restLength.get( s );
+                sum += strain;
+                max = Math.max( max , strain );
+                count++;
+            }
+            System.out.println( params.getSolverType()+" ; "+params.getIterationCount()+" ; "+
+                    String.format("%.5f", sum / count )+" ; "+String.format("%.5f", max )+" ; "+String.format("%.3f", millis ) );
+        } 
+        finally {
+            system.destroy();
+        }
+    }
+}